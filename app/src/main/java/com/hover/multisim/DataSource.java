@@ -10,7 +10,7 @@ public class DataSource {
 	private Context context;
 	protected SQLiteDatabase database;
 
-	protected DataSource(Context context) { context = context.getApplicationContext(); }
+	protected DataSource(Context context) { this.context = context.getApplicationContext(); }
 
 	protected void open() throws SQLException {
 		database = SimDatabase.getInstance(context).getWritableDatabase();
@@ -0,0 +1,113 @@
+package com.hover.multisim;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import io.sentry.Sentry;
+
+/**
+ * Delivers each published list of present SIMs to the registered SimInfoListeners on their own executors. A listener which is
+ * still busy, or whose executor hasn't run its last delivery yet, only keeps the latest list; its change set is computed from the
+ * list it last received, so nothing is lost by skipping the ones in between.
+ */
+final class ListenerRegistry {
+	private final static String TAG = "ListenerRegistry";
+	private final static Executor MAIN_THREAD = new Executor() {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+		@Override
+		public void execute(Runnable r) { handler.post(r); }
+	};
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+	private List<SimInfo> published = null;
+
+	void add(SimInfoListener listener, Executor executor) {
+		synchronized (this) {
+			for (Subscriber s : subscribers)
+				if (s.listener == listener) return;
+			subscribers.add(new Subscriber(listener, executor != null ? executor : MAIN_THREAD, published));
+		}
+	}
+
+	void remove(SimInfoListener listener) {
+		for (Subscriber s : subscribers)
+			if (s.listener == listener) subscribers.remove(s);
+	}
+
+	void publish(List<SimInfo> present) {
+		List<SimInfo> sims = Collections.unmodifiableList(new ArrayList<>(present));
+		synchronized (this) { published = sims; }
+		for (Subscriber s : subscribers)
+			s.offer(sims);
+	}
+
+	private final class Subscriber implements Runnable {
+		private final SimInfoListener listener;
+		private final Executor executor;
+		private List<SimInfo> delivered, latest = null;
+		private boolean scheduled = false;
+
+		Subscriber(SimInfoListener listener, Executor executor, List<SimInfo> delivered) {
+			this.listener = listener;
+			this.executor = executor;
+			if (delivered != null) {
+				this.delivered = new ArrayList<>(delivered.size());
+				for (SimInfo si : delivered) this.delivered.add(new SimInfo(si));
+			}
+		}
+
+		synchronized void offer(List<SimInfo> sims) {
+			latest = sims;
+			if (scheduled) return;
+			scheduled = true;
+			submit();
+		}
+
+		/**
+		 * Hands this to the executor, and if it is rejected clears scheduled so the next offer tries again
+		 */
+		private synchronized void submit() {
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) { scheduled = false; Log.w(TAG, "Listener executor rejected delivery", e); }
+		}
+
+		@Override
+		public void run() {
+			try {
+				deliver();
+			} finally {
+				synchronized (this) {
+					if (latest != null) submit(); // Keeps deliveries to one listener in order, even on a pool
+					else scheduled = false;
+				}
+			}
+		}
+
+		private void deliver() {
+			List<SimInfo> previous, sims;
+			synchronized (this) {
+				previous = delivered;
+				sims = latest;
+				latest = null;
+			}
+			if (sims == null || !subscribers.contains(this)) return;
+			List<SimInfo> copies = new ArrayList<>(sims.size());
+			for (SimInfo si : sims) copies.add(new SimInfo(si));
+			copies = Collections.unmodifiableList(copies);
+			SimChangeSet changes = SimChangeSet.compute(previous, copies);
+			synchronized (this) { delivered = copies; }
+			if (changes.isEmpty() && previous != null) return;
+			try {
+				listener.onSimInfoChanged(copies, changes);
+			} catch (Exception e) { Log.w(TAG, "SimInfoListener threw", e); Sentry.capture(e); }
+		}
+	}
+}
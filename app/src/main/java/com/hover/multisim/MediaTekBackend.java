@@ -0,0 +1,16 @@
+package com.hover.multisim;
+
+/**
+ * MediaTek's com.mediatek.telephony.TelephonyManagerEx, and the older Gemini getters MediaTek added to TelephonyManager. Both
+ * take the slot or subscription as their only parameter. Their suffixes are tried first, then the rest of the generic sweep.
+ */
+final class MediaTekBackend extends ReflectiveBackend {
+	final static String CLASS_NAME = "com.mediatek.telephony.TelephonyManagerEx";
+	private final static String[] METHOD_SUFFIXES = preferring("", "Gemini");
+
+	MediaTekBackend(Object teleMgr, Class<?> teleClass, ProbeProfile profile) {
+		super(teleMgr, teleClass, profile, METHOD_SUFFIXES, true);
+	}
+
+	@Override public String name() { return "mediatek"; }
+}
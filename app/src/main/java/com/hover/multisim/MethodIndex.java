@@ -0,0 +1,140 @@
+package com.hover.multisim;
+
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the declared methods of each telephony class by name and signature so that probing a method which doesn't exist is a
+ * map lookup rather than a thrown NoSuchMethodException. Misses are cached as well, for both classes and methods.
+ */
+final class MethodIndex {
+	private final static String TAG = "MethodIndex";
+	private final static Object MISSING = new Object();
+
+	private final static Map<String, Object> classes = new ConcurrentHashMap<>();
+	private final static Map<Class<?>, MethodIndex> indexes = new ConcurrentHashMap<>();
+
+	private final Class<?> owner;
+	private final Map<String, Object> methods = new ConcurrentHashMap<>();
+	private final boolean complete;
+
+	private MethodIndex(Class<?> owner) {
+		this.owner = owner;
+		complete = scan();
+	}
+
+	static Class<?> forName(String className) {
+		if (className == null) return null;
+		Object c = classes.get(className);
+		if (c == null) {
+			try {
+				c = Class.forName(className);
+			} catch (ClassNotFoundException | LinkageError e) { c = MISSING; }
+			classes.put(className, c);
+		}
+		return c == MISSING ? null : (Class<?>) c;
+	}
+
+	static MethodIndex of(Class<?> classInstance) {
+		MethodIndex index = indexes.get(classInstance);
+		if (index == null) {
+			index = new MethodIndex(classInstance);
+			indexes.put(classInstance, index);
+		}
+		return index;
+	}
+
+	static Object invoke(Object actualInstance, Class<?> classInstance, String methodName, Object[] methodParams) {
+		if (classInstance == null) return null;
+		try {
+			Method method = of(classInstance).find(methodName, methodParams);
+			return method != null ? ProbeGuard.invoke(method, actualInstance != null ? actualInstance : classInstance, methodParams) : null;
+		} catch (Exception ignored) { return null; }
+	}
+
+	Method find(String methodName, Object[] methodParams) {
+		String signature = signature(methodName, methodParams);
+		Object method = methods.get(signature);
+		if (method == null) {
+			if (complete) return null;
+			method = lookup(methodName, methodParams);
+			methods.put(signature, method);
+		}
+		return method == MISSING ? null : (Method) method;
+	}
+
+	private boolean scan() {
+		try {
+			for (Method method : owner.getDeclaredMethods()) {
+				String signature = signature(method.getName(), method.getParameterTypes());
+				Object existing = methods.get(signature);
+				if (existing == null || ((Method) existing).isBridge())
+					methods.put(signature, accessible(method));
+			}
+			return true;
+		} catch (LinkageError | SecurityException e) {
+			// Some OEM classes reference types missing from the device, so fall back to resolving one signature at a time
+			Log.d(TAG, "Couldn't index " + owner.getName() + ", resolving methods lazily");
+			methods.clear();
+			return false;
+		}
+	}
+
+	private Object lookup(String methodName, Object[] methodParams) {
+		try {
+			return accessible(owner.getDeclaredMethod(methodName, getClassParams(methodParams)));
+		} catch (Exception | LinkageError e) { return MISSING; }
+	}
+
+	private static Method accessible(Method method) {
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException ignored) { }
+		return method;
+	}
+
+	private static String signature(String methodName, Class<?>[] paramTypes) {
+		StringBuilder sb = new StringBuilder(methodName).append('(');
+		for (int i = 0; i < paramTypes.length; i++) {
+			if (i > 0) sb.append(',');
+			sb.append(paramTypes[i].getName());
+		}
+		return sb.append(')').toString();
+	}
+
+	private static String signature(String methodName, Object[] methodParams) {
+		if (methodParams == null || methodParams.length == 0) return methodName + "()";
+		StringBuilder sb = new StringBuilder(methodName).append('(');
+		for (int i = 0; i < methodParams.length; i++) {
+			if (i > 0) sb.append(',');
+			sb.append(getClassParam(methodParams[i]).getName());
+		}
+		return sb.append(')').toString();
+	}
+
+	private static Class[] getClassParams(Object[] methodParams) {
+		Class[] classesParams = null;
+		if (methodParams != null) {
+			classesParams = new Class[methodParams.length];
+			for (int i = 0; i < methodParams.length; i++)
+				classesParams[i] = getClassParam(methodParams[i]);
+		}
+		return classesParams;
+	}
+
+	private static Class<?> getClassParam(Object methodParam) {
+		if (methodParam instanceof Integer)
+			return int.class;
+		else if (methodParam instanceof String)
+			return String.class;
+		else if (methodParam instanceof Long)
+			return long.class;
+		else if (methodParam instanceof Boolean)
+			return boolean.class;
+		else
+			return methodParam.getClass();
+	}
+}
@@ -1,81 +1,102 @@
 package com.hover.multisim;
 
 import android.annotation.SuppressLint;
-import android.annotation.TargetApi;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Build;
 import android.os.SystemClock;
 import androidx.annotation.NonNull;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import android.telephony.PhoneStateListener;
-import android.telephony.ServiceState;
-import android.telephony.SubscriptionInfo;
-import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.Semaphore;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
 import androidx.work.ListenableWorker;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 import androidx.work.impl.utils.futures.SettableFuture;
-import io.sentry.Sentry;
 
 final public class MultiSimWorker extends ListenableWorker {
 	public static final String TAG = "MultiSimTeleMgr";
 	private static final String NEW_SIM_INFO = "NEW_SIM_INFO_ACTION";
 	static final int SLOT_COUNT = 3; // Need to check 0, 1, and 2. Some phones index from 1.
+	private static final long LISTEN_MS = 5000, QUIET_MS = 1500;
+	/**
+	 * Input data key for how long, in milliseconds, a worker keeps listening for SIM events after its first scan. It finishes
+	 * earlier once no event has arrived for a short quiet period. Defaults to 5 seconds.
+	 */
+	public static final String KEY_LISTEN_MS = "multisim_listen_ms";
+	private static final String KEY_PERIODIC = "multisim_periodic";
+	/**
+	 * Unique work names used by enqueue() and schedule()
+	 */
+	public static final String WORK_NAME = "multisim_scan", PERIODIC_WORK_NAME = "multisim_periodic_scan";
 
 	private SettableFuture<Result> workerFuture;
 	private Result result = null;
-
-	private final Semaphore slotSemaphore = new Semaphore(1, true);
-	private final Semaphore simSemaphore = new Semaphore(1, true);
-
-	private SimStateReceiver simStateReceiver;
-	private SimStateListener simStateListener;
-	private ArrayList<String> validClassNames;
-
-	private final String[] POSS_CLASS_NAMES = new String[] {
-			null,
-			"android.telephony.TelephonyManager",
-			"android.telephony.MSimTelephonyManager",
-			"android.telephony.MultiSimTelephonyService",
-			"com.mediatek.telephony.TelephonyManagerEx",
-			"com.android.internal.telephony.Phone",
-			"com.android.internal.telephony.PhoneFactory"
-	};
+	private long listenMs, lastTriggerAt = 0, listenDeadline = -1;
+	private SimMonitor monitor;
 
 	public MultiSimWorker(@NonNull Context context, @NonNull WorkerParameters params) {
 		super(context, params);
 	}
 
+	/**
+	 * Enqueues a scan unless one is already enqueued or running, in which case that one covers it
+	 */
+	public static void enqueue(Context c) {
+		WorkManager.getInstance(c).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, makeWork());
+	}
+
+	/**
+	 * Schedules the periodic scan from makeToil(), keeping the existing schedule if there is one
+	 */
+	public static void schedule(Context c) {
+		WorkManager.getInstance(c).enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, makeToil());
+	}
+
+	/**
+	 * Periodic work which wakes every 15 minutes while the battery isn't low and, from Android 6, the device is idle. Each run only
+	 * scans once it is due: the interval doubles with each scan that finds no change, up to a day, and drops back after a change or
+	 * a SIM state broadcast.
+	 */
 	public static PeriodicWorkRequest makeToil() {
-		return new PeriodicWorkRequest.Builder(MultiSimWorker.class, 15, TimeUnit.MINUTES).build();
+		Constraints.Builder constraints = new Constraints.Builder().setRequiresBatteryNotLow(true);
+		if (Build.VERSION.SDK_INT >= 23) constraints.setRequiresDeviceIdle(true);
+		return new PeriodicWorkRequest.Builder(MultiSimWorker.class, ScanSchedule.MIN_INTERVAL_MS, TimeUnit.MILLISECONDS)
+			.setConstraints(constraints.build())
+			.setInputData(new Data.Builder().putBoolean(KEY_PERIODIC, true).build()).build();
 	}
 
 	public static OneTimeWorkRequest makeWork() {
 		return new OneTimeWorkRequest.Builder(MultiSimWorker.class).build();
 	}
 
+	public static OneTimeWorkRequest makeWork(long listenMs) {
+		return new OneTimeWorkRequest.Builder(MultiSimWorker.class)
+			.setInputData(new Data.Builder().putLong(KEY_LISTEN_MS, listenMs).build()).build();
+	}
+
 	@Override
 	@SuppressLint("RestrictedApi")
 	public @NonNull ListenableFuture<Result> startWork() {
 		Log.v(TAG, "Starting new Multi SIM worker");
 		workerFuture = SettableFuture.create();
+		listenMs = Math.max(0, getInputData().getLong(KEY_LISTEN_MS, LISTEN_MS));
+		if (getInputData().getBoolean(KEY_PERIODIC, false) && !ScanSchedule.isDue(getApplicationContext())) {
+			workerFuture.set(Result.success());
+			return workerFuture;
+		}
 
 		if (Utils.hasPhonePerm(getApplicationContext()))
 			startListeners();
@@ -86,228 +107,78 @@ final public class MultiSimWorker extends ListenableWorker {
 
 	@SuppressLint("RestrictedApi")
 	private void startListeners() {
+		monitor = SimMonitor.get(getApplicationContext());
 		try {
-			registerSimStateReceiver();
-			if (simStateListener == null) simStateListener = new SimStateListener();
-			// TelephonyManager.listen() must take place on the main thread
-			((TelephonyManager) getApplicationContext().getSystemService(Context.TELEPHONY_SERVICE))
-				.listen(simStateListener, PhoneStateListener.LISTEN_SERVICE_STATE | PhoneStateListener.LISTEN_SIGNAL_STRENGTHS);
+			monitor.attach(attachment);
+			// Sticky and initial listener events only ask for one slot or network info, but each run checks everything once
+			synchronized (this) { lastTriggerAt = SystemClock.elapsedRealtime(); }
+			monitor.requestScan(ScanRequest.full());
 		} catch (Exception e) {
 			Log.d(TAG, "Failed to start SIM listeners, setting retry", e);
+			monitor.detach(attachment);
 			workerFuture.set(Result.retry());
 		}
 	}
 
-	@SuppressLint("RestrictedApi")
-	synchronized private void updateSimInfo() {
-		getBackgroundExecutor().execute(new Runnable() {
-			@Override
-			public void run() {
-			try {
-				simSemaphore.acquire();
-				if (Utils.hasPhonePerm(getApplicationContext())) {
-					Log.v(TAG, "reviewing sim info");
-					List<SimInfo> oldList = getSaved();
-					List<SimInfo> newList = findUniqueSimInfo();
-
-					if (newList != null) {
-						compareNewAndOld(newList, oldList);
-						result = Result.success();
-					} else
-						result = Result.failure();
-				} else result = Result.failure();
-			} catch (Exception e) { Log.w(TAG, "threw while attempting to update sim list", e); Sentry.capture(e); result = Result.failure();
-			} finally {
-				simSemaphore.release();
-// Give the listeners a chance to receive a few events - sometimes the first trigger isn't the needed info. 5s is long but this is a background thread anyway and the info has already been updated in the DB
-				SystemClock.sleep(5000);
-				if (!workerFuture.isDone()) {
-					Log.v(TAG, "Finishing Multi SIM worker");
-					workerFuture.set(result);
-				}
-			}
-			}
-		});
-	}
-
-	private void compareNewAndOld(List<SimInfo> newList, List<SimInfo> oldList) {
-		if (oldList == null || oldList.size() != newList.size()) {
-			Log.v(TAG, "no old list or sizes differ. Old: " + (oldList != null ? oldList.size() : "null") + ", new: " + newList.size());
-			onSimInfoUpdate(newList);
-		} else {
-			for (int i = 0; i < newList.size(); i++)
-				if (newList.get(i).isNotContainedInOrHasMoved(oldList)) {
-					Log.v(TAG, "some sim moved");
-					onSimInfoUpdate(newList);
-					break;
-				}
-		}
-	}
-
-	private ArrayList<SimInfo> getSaved() {
-		ArrayList<SimInfo> oldList = null;
-		for (int i = 0; i < SLOT_COUNT; i++) {
-			SimInfo si = new SimDataSource(getApplicationContext()).get(i);
-			if (si != null) {
-				if (oldList == null) oldList = new ArrayList<>();
-				oldList.add(si);
-			}
-		}
-		Log.v(TAG, "Loaded old list from db. Size: " + (oldList != null ? oldList.size() : "null"));
-		return oldList;
-	}
-
-	private void onSimInfoUpdate(List<SimInfo> newList) {
-		updateDb(newList);
-		Log.v(TAG, "Saved. Firing broadcast");
-		LocalBroadcastManager.getInstance(getApplicationContext()).sendBroadcast(new Intent(action(getApplicationContext())));
-	}
-
-	private void updateDb(List<SimInfo> newList) {
-		for (SimInfo si: newList) {
-			Log.i(TAG, "Saving SIM in slot " + si.slotIdx + ": " + si.toString());
-			si.save(getApplicationContext());
+	private final SimMonitor.Attachment attachment = new SimMonitor.Attachment() {
+		@Override
+		public void onTrigger() {
+			synchronized (MultiSimWorker.this) { lastTriggerAt = SystemClock.elapsedRealtime(); }
 		}
 
-		List<SimInfo> dbInfos = new SimDataSource(getApplicationContext()).getAll();
-		for (SimInfo dbSi: dbInfos) {
-			if (!findPhysicalSim(newList, dbSi)) {
-				Log.i(TAG, "Couldn't find SIM: " + dbSi.toString() + ", removing");
-				dbSi.setSimRemoved(getApplicationContext());
-			}
+		@Override
+		public void onScanned(boolean succeeded) {
+			result = succeeded ? Result.success() : Result.failure();
+			scheduleCompletion();
 		}
-	}
+	};
 
-	private boolean findPhysicalSim(List<SimInfo> newList, SimInfo savedSim) {
-		for (SimInfo si: newList) {
-			if (si.isSameSim(savedSim))
-				return true;
+	/**
+	 * Give the listeners a chance to receive a few events - sometimes the first trigger isn't the needed info. Rather than holding
+	 * a thread, the worker finishes from the timer once events have been quiet for a while, or the listen window after the first
+	 * scan has passed.
+	 */
+	private void scheduleCompletion() {
+		synchronized (this) {
+			if (listenDeadline < 0) listenDeadline = SystemClock.elapsedRealtime() + listenMs;
 		}
-		return false;
-	}
-
-	@SuppressWarnings({"MissingPermission"})
-	synchronized private List<SimInfo> findUniqueSimInfo() {
-		List<SimInfo> newList = new ArrayList<>();
-		try {
-			slotSemaphore.acquire();
-			List<SlotManager> slotMgrList = new ArrayList<>();
-			List<Object> teleMgrInstances = listTeleMgrs(slotMgrList);
-
-			List<SubscriptionInfo> subInfos = new ArrayList<>();
-			if (Build.VERSION.SDK_INT >= 22)
-				subInfos = getSubscriptions(teleMgrInstances, slotMgrList);
-
-			if (subInfos != null && subInfos.size() > 0)
-				newList = createUniqueSimInfoList(subInfos, slotMgrList);
-			else
-				newList = createUniqueSimInfoList(slotMgrList);
-		} catch (Exception e) { Log.w(TAG, "Multi-SIM worker caught something", e); Sentry.capture(e);
-		} finally { slotSemaphore.release(); }
-		return newList;
+		ScanCoalescer.schedule(completeIfSettled, Math.min(QUIET_MS, listenMs));
 	}
 
-	private List<SimInfo> createUniqueSimInfoList(List<SubscriptionInfo> subInfos, List<SlotManager> slotMgrList) {
-		List<SimInfo> newList = createUniqueSimInfoList(slotMgrList);
-		for (SubscriptionInfo subInfo: subInfos)
-			newList.add(new SimInfo(subInfo, getApplicationContext()));
-		return removeDuplicates(newList);
-	}
-	private List<SimInfo> createUniqueSimInfoList(List<SlotManager> slotMgrList) {
-		List<SimInfo> newList = new ArrayList<>();
-		for (SlotManager sm: slotMgrList)
-			newList.add(sm.createSimInfo());
-		return removeDuplicates(newList);
-	}
-	private List<SimInfo> removeDuplicates(List<SimInfo> simInfos) {
-		List<SimInfo> uniqueSimInfos = new ArrayList<>();
-		for (SimInfo simInfo: simInfos)
-			if (simInfo.isNotContainedIn(uniqueSimInfos))
-				uniqueSimInfos.add(simInfo);
-		return uniqueSimInfos;
-	}
-
-	@TargetApi(22)
-	@SuppressWarnings({"MissingPermission"})
-	private List<SubscriptionInfo> getSubscriptions(List<Object> teleMgrInstances, List<SlotManager> slotMgrList) throws Exception {
-		List<SubscriptionInfo> subInfos = SubscriptionManager.from(getApplicationContext()).getActiveSubscriptionInfoList();
-		if (teleMgrInstances != null) {
-			for (Object teleMgr : teleMgrInstances) {
-				if (subInfos != null) {
-					for (SubscriptionInfo subinfo : subInfos)
-						SlotManager.addValidReadySlots(slotMgrList, subinfo.getSimSlotIndex(), subinfo.getSubscriptionId(), teleMgr, validClassNames);
-				}
+	private final Runnable completeIfSettled = new Runnable() {
+		@Override
+		@SuppressLint("RestrictedApi")
+		public void run() {
+			if (workerFuture.isDone()) return;
+			long now = SystemClock.elapsedRealtime(), quietAt, deadline;
+			synchronized (MultiSimWorker.this) {
+				quietAt = lastTriggerAt + Math.min(QUIET_MS, listenMs);
+				deadline = listenDeadline;
 			}
+			if (now >= deadline || (now >= quietAt && !monitor.isBusy())) {
+				Log.v(TAG, "Finishing Multi SIM worker");
+				monitor.detach(attachment);
+				workerFuture.set(result);
+			} else
+				ScanCoalescer.schedule(this, Math.max(50, Math.min(deadline, Math.max(quietAt, now + SimMonitor.SETTLE_MS)) - now));
 		}
-		return subInfos;
-	}
-
-	@SuppressWarnings("ResourceType")
-	private List<Object> listTeleMgrs(List<SlotManager> slotMgrList) {
-		if (validClassNames == null || validClassNames.isEmpty()) validClassNames = new ArrayList<>(Arrays.asList(POSS_CLASS_NAMES));
-		List<Object> teleMgrList = new ArrayList<>();
-
-//		Log("Creating TeleMgrs List..............................................................");
-		for (String className : POSS_CLASS_NAMES) {
-			if (className == null) continue;
-			addMgrFromReflection(className, teleMgrList, null, slotMgrList);
-			for (int i = 0; i < SLOT_COUNT; i++)
-				addMgrFromReflection(className, teleMgrList, i, slotMgrList);
-		}
+	};
 
-		addMgrFromSystemService(Context.TELEPHONY_SERVICE, teleMgrList, null, slotMgrList);
-		addMgrFromSystemService("phone_msim", teleMgrList, null, slotMgrList);
-		for (int j = 0; j < SLOT_COUNT; j++)
-			addMgrFromSystemService("phone" + j, teleMgrList, j, slotMgrList);
-		teleMgrList.add(null);
+	/**
+	 * Calls listener on the main thread with the present SIMs whenever they change, as well as sending the action() broadcast
+	 */
+	public static void addListener(SimInfoListener listener) { addListener(listener, null); }
+	/**
+	 * Calls listener on executor with the present SIMs whenever they change, as well as sending the action() broadcast
+	 */
+	public static void addListener(SimInfoListener listener, Executor executor) { SimMonitor.listeners.add(listener, executor); }
+	public static void removeListener(SimInfoListener listener) { SimMonitor.listeners.remove(listener); }
 
-//		Log("Total TeleMgrInstances length including null entry: " + teleMgrList.size());
-//		Log("Valid class names were: " + validClassNames.toString());
-//		Log("....................................................................................");
-		return teleMgrList;
-	}
-	private void addMgrFromReflection(String className, List<Object> teleMgrList, Object slotIdx, List<SlotManager> slotMgrList) {
-		Object result = runMethodReflect(className, "getDefault", slotIdx == null ? null : new Object[]{ slotIdx });
-		if (result != null && !teleMgrList.contains(result)) {
-			teleMgrList.add(result);
-			Log("Added Mgr using className: " + className + ", method: getDefault, and param: " + slotIdx);
-			if (Build.VERSION.SDK_INT < 22)
-				SlotManager.addValidReadySlots(slotMgrList, slotIdx, result, validClassNames);
-		}
-	}
-	private void addMgrFromSystemService(String serviceName, List<Object> teleMgrList, Object slotIdx, List<SlotManager> slotMgrList) {
-		Object serv = getApplicationContext().getSystemService(serviceName);
-		if (serv != null && !teleMgrList.contains(serv)) {
-			teleMgrList.add(serv);
-			Log("Added Mgr using mContext.getSystemService('" + serviceName + "')");
-			if (Build.VERSION.SDK_INT < 22)
-				SlotManager.addValidReadySlots(slotMgrList, slotIdx, serv, validClassNames);
-		}
-	}
-
-	@SuppressWarnings("SameParameterValue")
-	private Object runMethodReflect(String className, String methodName, Object[] methodParams) {
-		try {
-			return runMethodReflect(null, Class.forName(className), methodName, methodParams);
-		} catch (ClassNotFoundException e) {
-			validClassNames.remove(className);
-//			Log("Class not found, removing: " + e);
-		}
-		return null;
-	}
 	private static Object runMethodReflect(Object actualInstance, String methodName, Object[] methodParams) {
 		return runMethodReflect(actualInstance, actualInstance.getClass(), methodName, methodParams);
 	}
 	public static Object runMethodReflect(Object actualInstance, Class<?> classInstance, String methodName, Object[] methodParams) {
-		Object result = null;
-		try {
-			Method method = classInstance.getDeclaredMethod(methodName, getClassParams(methodParams));
-			boolean accessible = method.isAccessible();
-			method.setAccessible(true);
-			result = method.invoke(actualInstance != null ? actualInstance : classInstance, methodParams);
-			method.setAccessible(accessible);
-		} catch (Exception ignored) { /* Log("Method not found: " + ignored); */ }
-		return result;
+		return MethodIndex.invoke(actualInstance, classInstance, methodName, methodParams);
 	}
 
 	@SuppressWarnings("unused")
@@ -326,64 +197,17 @@ final public class MultiSimWorker extends ListenableWorker {
 		return result;
 	}
 
-	private static Class[] getClassParams(Object[] methodParams) {
-		Class[] classesParams = null;
-		if (methodParams != null) {
-			classesParams = new Class[methodParams.length];
-			for (int i = 0; i < methodParams.length; i++) {
-				if (methodParams[i] instanceof Integer)
-					classesParams[i] = int.class; // logString += methodParams[i] + ",";
-				else if (methodParams[i] instanceof String)
-					classesParams[i] = String.class; // logString += "\"" + methodParams[i] + "\",";
-				else if (methodParams[i] instanceof Long)
-					classesParams[i] = long.class; // logString += methodParams[i] + ",";
-				else if (methodParams[i] instanceof Boolean)
-					classesParams[i] = boolean.class; // logString += methodParams[i] + ",";
-				else
-					classesParams[i] = methodParams[i].getClass(); // logString += "["+methodParams[i]+"]" + ",";
-			}
-		}
-		return classesParams;
-	}
-
-	private void registerSimStateReceiver() {
-		if (simStateReceiver == null) {
-			simStateReceiver = new SimStateReceiver();
-			IntentFilter intentFilter = new IntentFilter();
-			intentFilter.addAction("android.intent.action.SIM_STATE_CHANGED");
-			intentFilter.addAction("android.intent.action.ACTION_SIM_STATE_CHANGED");
-			intentFilter.addAction("android.intent.action.PHONE_STATE");
-			intentFilter.addAction("vivo.intent.action.ACTION_SIM_STATE_CHANGED");
-			getApplicationContext().registerReceiver(simStateReceiver, intentFilter);
-		}
-	}
-
-	private class SimStateListener extends PhoneStateListener {
-		public void onServiceStateChanged(ServiceState serviceState) {
-				updateSimInfo();
-		}
-	}
-
-	private class SimStateReceiver extends BroadcastReceiver {
-		@Override
-		public void onReceive(final Context context, final Intent intent) {
-			if (intent != null) updateSimInfo();
-		}
-	}
+	/**
+	 * @return for diagnostics, each hidden telephony class#method:paramCount which has thrown or timed out, with its circuit breaker state
+	 */
+	public static Map<String, String> getProbeDiagnostics() { return ProbeGuard.getStates(); }
 
 	public static String action(Context c) { return Utils.getPackage(c) + "." + NEW_SIM_INFO; }
 
 	@Override
 	public void onStopped() {
 		super.onStopped();
-		try {
-			((TelephonyManager) getApplicationContext().getSystemService(Context.TELEPHONY_SERVICE))
-					.listen(simStateListener, PhoneStateListener.LISTEN_NONE);
-			simStateListener = null;
-			if (simStateReceiver != null)
-				getApplicationContext().unregisterReceiver(simStateReceiver);
-			simStateReceiver = null;
-		} catch(Exception ignored) {}
+		if (monitor != null) monitor.detach(attachment);
 	}
 
 	@SuppressWarnings("unused")
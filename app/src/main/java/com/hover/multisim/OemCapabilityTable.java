@@ -0,0 +1,86 @@
+package com.hover.multisim;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import io.sentry.Sentry;
+
+/**
+ * Reads the bundled table of telephony classes and method suffixes known to work on each chipset family, so that a cold first
+ * scan on a known device can go straight to the right accessors instead of the full discovery sweep.
+ */
+final class OemCapabilityTable {
+	private final static String TAG = "OemCapabilityTable";
+	private final static String ASSET_NAME = "multisim_oem_profiles.json";
+	private final static int SUPPORTED_VERSION = 1;
+
+	private final static String KEY_VERSION = "version";
+	private final static String KEY_PROFILES = "profiles";
+	private final static String KEY_MANUFACTURER = "manufacturer";
+	private final static String KEY_HARDWARE = "hardware";
+	private final static String KEY_MIN_SDK = "min_sdk";
+	private final static String KEY_MAX_SDK = "max_sdk";
+
+	private static JSONObject matched = null;
+	private static boolean loaded = false;
+
+	private OemCapabilityTable() {}
+
+	/**
+	 * @return a seeded profile for this device, or null if the table has no matching entry
+	 */
+	static synchronized ProbeProfile match(Context c) {
+		if (!loaded) {
+			matched = find(c);
+			loaded = true;
+		}
+		return matched != null ? ProbeProfile.fromTable(matched) : null;
+	}
+
+	private static JSONObject find(Context c) {
+		try {
+			JSONObject table = new JSONObject(ProbeProfile.readStream(c.getAssets().open(ASSET_NAME)));
+			if (table.optInt(KEY_VERSION, 0) > SUPPORTED_VERSION) {
+				Log.w(TAG, "OEM table version " + table.optInt(KEY_VERSION, 0) + " is newer than supported, ignoring");
+				return null;
+			}
+			JSONArray profiles = table.optJSONArray(KEY_PROFILES);
+			for (int i = 0; profiles != null && i < profiles.length(); i++) {
+				JSONObject entry = profiles.optJSONObject(i);
+				if (entry != null && matches(entry, Build.MANUFACTURER, Build.HARDWARE, Build.VERSION.SDK_INT)) {
+					Log.v(TAG, "Matched OEM profile " + i + " for " + Build.MANUFACTURER + "/" + Build.HARDWARE + "/" + Build.VERSION.SDK_INT);
+					return entry;
+				}
+			}
+		} catch (IOException | JSONException e) { Log.w(TAG, "Failed to read OEM table", e); Sentry.capture(e); }
+		return null;
+	}
+
+	/**
+	 * An entry must name a manufacturer or hardware prefix. A generic entry would pin every device to a few public accessors and,
+	 * once saved as the learned profile, stop vendor classes from ever being probed.
+	 */
+	static boolean matches(JSONObject entry, String manufacturer, String hardware, int sdk) {
+		if (sdk < entry.optInt(KEY_MIN_SDK, 0) || sdk > entry.optInt(KEY_MAX_SDK, Integer.MAX_VALUE))
+			return false;
+		String wantedManufacturer = entry.optString(KEY_MANUFACTURER, "");
+		if (!wantedManufacturer.isEmpty() && !wantedManufacturer.equalsIgnoreCase(manufacturer))
+			return false;
+		JSONArray hardwarePrefixes = entry.optJSONArray(KEY_HARDWARE);
+		if (hardwarePrefixes == null || hardwarePrefixes.length() == 0)
+			return !wantedManufacturer.isEmpty();
+		String hw = hardware != null ? hardware.toLowerCase(Locale.US) : "";
+		for (int i = 0; i < hardwarePrefixes.length(); i++)
+			if (hw.startsWith(hardwarePrefixes.optString(i).toLowerCase(Locale.US)))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,122 @@
+package com.hover.multisim;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs reflective telephony calls under a deadline, since some vendor implementations block on binder calls indefinitely. Each
+ * class and method has a circuit breaker: after repeated timeouts or thrown exceptions it is skipped for a cool-down, then given
+ * one more try. Calls on a receiver of the wrong type are skipped and never count against the method.
+ */
+final class ProbeGuard {
+	private final static String TAG = "ProbeGuard";
+	private final static long DEADLINE_MS = 1500;
+	private final static long COOL_DOWN_MS = TimeUnit.MINUTES.toMillis(10);
+	private final static int TRIP_AFTER = 3;
+
+	// A hung call keeps its thread, since Method.invoke ignores interrupts, so the pool is bounded
+	private final static ThreadPoolExecutor callers = new ThreadPoolExecutor(0, 8, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), Utils.daemonThreads("MultiSimCall"));
+
+	private final static ConcurrentHashMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+	private ProbeGuard() {}
+
+	/**
+	 * @return what method returned, or null if receiver can't be passed to it, or it threw, timed out, or its breaker is open
+	 */
+	static Object invoke(final Method method, final Object receiver, final Object[] params) {
+		if (!Modifier.isStatic(method.getModifiers()) && !method.getDeclaringClass().isInstance(receiver)) return null;
+		Breaker breaker = getBreaker(method);
+		if (!breaker.allows()) return null;
+		Future<Object> call;
+		try {
+			call = callers.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception { return method.invoke(receiver, params); }
+			});
+		} catch (RejectedExecutionException e) { Log.w(TAG, "No thread free to call " + breaker.key); return null; } // Not this method's fault
+		try {
+			Object result = call.get(DEADLINE_MS, TimeUnit.MILLISECONDS);
+			breaker.succeeded();
+			return result;
+		} catch (TimeoutException e) {
+			call.cancel(true);
+			Log.w(TAG, "Timed out calling " + breaker.key);
+			breaker.failed(true);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InvocationTargetException) breaker.failed(false);
+		} catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+		return null;
+	}
+
+	private static Breaker getBreaker(Method method) {
+		String key = method.getDeclaringClass().getName() + "#" + method.getName() + ":" + method.getParameterTypes().length;
+		Breaker breaker = breakers.get(key);
+		if (breaker == null) {
+			breakers.putIfAbsent(key, new Breaker(key));
+			breaker = breakers.get(key);
+		}
+		return breaker;
+	}
+
+	/**
+	 * @return each class#method:paramCount which has failed or tripped, with its breaker state
+	 */
+	static Map<String, String> getStates() {
+		Map<String, String> states = new TreeMap<>();
+		for (Breaker breaker : breakers.values())
+			if (breaker.hasFailed()) states.put(breaker.key, breaker.toString());
+		return states;
+	}
+
+	static void logStates() {
+		for (Map.Entry<String, String> entry : getStates().entrySet())
+			Log.v(TAG, entry.getKey() + ": " + entry.getValue());
+	}
+
+	private static final class Breaker {
+		final String key;
+		int failures = 0, timeouts = 0, trips = 0;
+		long openUntil = 0;
+
+		Breaker(String key) { this.key = key; }
+
+		synchronized boolean allows() { return SystemClock.elapsedRealtime() >= openUntil; }
+
+		synchronized void succeeded() {
+			failures = 0;
+			openUntil = 0;
+		}
+
+		synchronized boolean hasFailed() { return failures > 0 || trips > 0; }
+
+		synchronized void failed(boolean timedOut) {
+			if (timedOut) timeouts++;
+			if (++failures >= TRIP_AFTER) { // Only a success resets failures, so one more failure after a cool-down trips it again
+				openUntil = SystemClock.elapsedRealtime() + COOL_DOWN_MS;
+				trips++;
+				Log.i(TAG, "Disabled " + key + " for " + (COOL_DOWN_MS / 1000) + "s after " + failures + " failure(s)");
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return (allows() ? "closed" : "open") + ", " + failures + " consecutive failure(s), " + timeouts + " timeout(s), " + trips + " trip(s)";
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.hover.multisim;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.sentry.Sentry;
+
+/**
+ * A small shared pool for running independent telephony probes at the same time, since some OEM getters take tens of
+ * milliseconds each. Results always come back in the order the probes were given, so merging them is deterministic.
+ */
+final class ProbePool {
+	private final static String TAG = "ProbePool";
+	private final static int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private final static ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), Utils.daemonThreads("MultiSimProbe"));
+	static { pool.allowCoreThreadTimeOut(true); }
+
+	private ProbePool() {}
+
+	/**
+	 * Runs every probe and waits for all of them
+	 *
+	 * @return each probe's result in the same order, with null for any probe which threw
+	 */
+	static <T> List<T> invokeAll(List<Callable<T>> probes) throws InterruptedException {
+		List<T> results = new ArrayList<>(probes.size());
+		if (probes.size() == 1) {
+			results.add(call(probes.get(0)));
+			return results;
+		}
+		for (Future<T> future : pool.invokeAll(probes)) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) { Log.w(TAG, "Probe threw", e.getCause()); Sentry.capture(e.getCause()); results.add(null); }
+		}
+		return results;
+	}
+
+	private static <T> T call(Callable<T> probe) {
+		try {
+			return probe.call();
+		} catch (Exception e) { Log.w(TAG, "Probe threw", e); Sentry.capture(e); return null; }
+	}
+}
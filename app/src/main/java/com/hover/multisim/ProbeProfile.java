@@ -0,0 +1,252 @@
+package com.hover.multisim;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.sentry.Sentry;
+
+/**
+ * The telephony managers found on this device, and the class names and method suffixes which produced READY slots. Recorded by
+ * a full discovery scan and replayed by later scans so that they only call what is known to answer. Keyed by Build.FINGERPRINT, since an OS update
+ * can change which hidden APIs exist.
+ */
+final class ProbeProfile {
+	private final static String TAG = "ProbeProfile";
+	private final static String FILE_NAME = "multisim_probe.json";
+
+	private final static String KEY_FINGERPRINT = "fingerprint";
+	private final static String KEY_SOURCES = "sources";
+	private final static String KEY_CLASSES = "classes";
+	private final static String KEY_SUFFIXES = "suffixes";
+	private final static String KEY_KIND = "kind";
+	private final static String KEY_NAME = "name";
+	private final static String KEY_SLOT = "slot";
+
+	final static String KIND_REFLECT = "reflect";
+	final static String KIND_SERVICE = "service";
+
+	private static ProbeProfile saved = null;
+
+	private final boolean learning;
+	private final List<Source> sources = new ArrayList<>();
+	private final List<String> classNames = new ArrayList<>();
+	private final Map<String, String> suffixes = new ConcurrentHashMap<>();
+	private final Map<String, String> hints = new ConcurrentHashMap<>();
+	private boolean dirty = false;
+
+	private ProbeProfile(boolean learning) { this.learning = learning; }
+
+	static ProbeProfile learn() { return new ProbeProfile(true); }
+
+	boolean isLearning() { return learning; }
+
+	List<Source> getSources() { return sources; }
+
+	ArrayList<String> getClassNames() { return new ArrayList<>(classNames); }
+
+	/**
+	 * @return the suffix and arity that answered methodName on teleClass, e.g. "Gemini:1", or null if nothing is known
+	 */
+	String getSuffix(Class<?> teleClass, String methodName) {
+		return teleClass == null ? null : suffixes.get(teleClass.getName() + "#" + methodName);
+	}
+
+	/**
+	 * @return the suffix and arity the bundled OEM table expects to answer methodName, which hasn't been confirmed on this device yet
+	 */
+	String getHint(Class<?> teleClass, String methodName) {
+		return teleClass == null ? null : hints.get(teleClass.getName() + "#" + methodName);
+	}
+
+	/**
+	 * Records the suffix which answered. A per-slot method is never replaced by a no-param one, since the no-param fallback
+	 * answers for the default SIM whenever the per-slot method returns nothing for an empty slot.
+	 */
+	synchronized void recordSuffix(Class<?> teleClass, String methodName, String methodSuffix, boolean withParam) {
+		if (teleClass == null) return;
+		String key = teleClass.getName() + "#" + methodName, value = methodSuffix + (withParam ? ":1" : ":0");
+		String recorded = suffixes.get(key);
+		if (value.equals(recorded) || (!withParam && recorded != null && recorded.endsWith(":1"))) return;
+		suffixes.put(key, value);
+		dirty = true;
+	}
+	void recordSuffix(Class<?> teleClass, String methodName, String known) {
+		int split = known.lastIndexOf(':');
+		recordSuffix(teleClass, methodName, known.substring(0, split), known.endsWith(":1"));
+	}
+
+	/**
+	 * Keeps the class names which produced a READY slot. While learning, every manager which was found is kept too, after the ones
+	 * with a READY slot: a manager for an empty slot, like getDefault(1) or "phone1", is the only way to find a SIM inserted there
+	 * later, and a replayed profile is only relearned once it finds no slot at all.
+	 */
+	void recordSlots(List<SlotManager> slotMgrList, Map<Object, Source> sourceOf) {
+		for (SlotManager sm : slotMgrList) {
+			if (sm.backend instanceof SubscriptionBackend) continue;
+			Source source = sourceOf.get(sm.teleMgr);
+			if (source != null && !sources.contains(source)) { sources.add(source); dirty = true; }
+			if (!classNames.contains(sm.className)) { classNames.add(sm.className); dirty = true; }
+		}
+		if (learning)
+			for (Source source : sourceOf.values())
+				if (!sources.contains(source)) { sources.add(source); dirty = true; }
+	}
+
+	static synchronized ProbeProfile load(Context c) {
+		if (saved == null) saved = read(getFile(c));
+		return saved;
+	}
+
+	synchronized void save(Context c) {
+		if (!dirty || sources.isEmpty()) return;
+		try {
+			write(getFile(c), toJson().toString());
+			dirty = false;
+			synchronized (ProbeProfile.class) { saved = this; }
+			Log.v(TAG, "Saved probe profile. Sources: " + sources.size() + ", classes: " + classNames.size() + ", suffixes: " + suffixes.size());
+		} catch (IOException | JSONException e) { Log.w(TAG, "Failed to save probe profile", e); Sentry.capture(e); }
+	}
+
+	private static File getFile(Context c) {
+		return new File(c.getDatabasePath(SimDatabase.DATABASE_NAME).getParentFile(), FILE_NAME);
+	}
+
+	private static ProbeProfile read(File file) {
+		if (!file.exists()) return null;
+		try {
+			return fromJson(new JSONObject(readFile(file)));
+		} catch (IOException | JSONException e) { Log.w(TAG, "Failed to read probe profile", e); Sentry.capture(e); }
+		return null;
+	}
+
+	static ProbeProfile fromJson(JSONObject json) {
+		if (!Build.FINGERPRINT.equals(json.optString(KEY_FINGERPRINT))) {
+			Log.v(TAG, "Probe profile was recorded on a different build, ignoring");
+			return null;
+		}
+		ProbeProfile profile = new ProbeProfile(false);
+		profile.parse(json, profile.suffixes);
+		return profile.sources.isEmpty() ? null : profile;
+	}
+
+	/**
+	 * Seeds a profile from an entry of the bundled OEM table. Its suffixes are only hints until a scan confirms them, and it is
+	 * saved for this build as soon as it produces a READY slot.
+	 */
+	static ProbeProfile fromTable(JSONObject entry) {
+		ProbeProfile profile = new ProbeProfile(false);
+		profile.parse(entry, profile.hints);
+		profile.dirty = true;
+		return profile.sources.isEmpty() ? null : profile;
+	}
+
+	private void parse(JSONObject json, Map<String, String> suffixTarget) {
+		JSONArray sources = json.optJSONArray(KEY_SOURCES);
+		for (int i = 0; sources != null && i < sources.length(); i++) {
+			JSONObject source = sources.optJSONObject(i);
+			if (source != null)
+				this.sources.add(new Source(source.optString(KEY_KIND), source.optString(KEY_NAME), source.has(KEY_SLOT) ? source.optInt(KEY_SLOT, 0) : null));
+		}
+		JSONArray classes = json.optJSONArray(KEY_CLASSES);
+		for (int i = 0; classes != null && i < classes.length(); i++) {
+			String className = classes.optString(i);
+			this.classNames.add(className.isEmpty() ? null : className);
+		}
+		JSONObject suffixes = json.optJSONObject(KEY_SUFFIXES);
+		if (suffixes != null) {
+			Iterator<String> keys = suffixes.keys();
+			while (keys.hasNext()) {
+				String key = keys.next();
+				suffixTarget.put(key, suffixes.optString(key));
+			}
+		}
+	}
+
+	JSONObject toJson() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(KEY_FINGERPRINT, Build.FINGERPRINT);
+		JSONArray sourceArray = new JSONArray();
+		for (Source source : sources) {
+			JSONObject s = new JSONObject();
+			s.put(KEY_KIND, source.kind);
+			s.put(KEY_NAME, source.name);
+			if (source.slotIdx != null) s.put(KEY_SLOT, (int) source.slotIdx);
+			sourceArray.put(s);
+		}
+		json.put(KEY_SOURCES, sourceArray);
+		JSONArray classArray = new JSONArray();
+		for (String className : classNames)
+			classArray.put(className != null ? className : "");
+		json.put(KEY_CLASSES, classArray);
+		json.put(KEY_SUFFIXES, new JSONObject(suffixes));
+		return json;
+	}
+
+	static String readFile(File file) throws IOException {
+		return readStream(new FileInputStream(file));
+	}
+
+	static String readStream(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toString("UTF-8");
+		} finally { in.close(); }
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) throw new IOException("Couldn't create " + file.getParent());
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(contents.getBytes("UTF-8"));
+			out.getFD().sync();
+		} finally { out.close(); }
+		if (!tmp.renameTo(file)) throw new IOException("Couldn't move probe profile into place");
+	}
+
+	/**
+	 * Where a telephony manager instance came from: a static getDefault() on a class, or Context.getSystemService()
+	 */
+	static final class Source {
+		final String kind;
+		final String name;
+		final Integer slotIdx;
+
+		Source(String kind, String name, Integer slotIdx) {
+			this.kind = kind;
+			this.name = name;
+			this.slotIdx = slotIdx;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Source)) return false;
+			Source s = (Source) o;
+			return kind.equals(s.kind) && name.equals(s.name) && (slotIdx == null ? s.slotIdx == null : slotIdx.equals(s.slotIdx));
+		}
+
+		@Override
+		public int hashCode() { return 31 * (31 * kind.hashCode() + name.hashCode()) + (slotIdx != null ? slotIdx : -1); }
+	}
+}
@@ -0,0 +1,16 @@
+package com.hover.multisim;
+
+/**
+ * Qualcomm's android.telephony.MSimTelephonyManager, whose getters take the subscription as their only parameter and carry no suffix.
+ * The unsuffixed getters are tried first, then the rest of the generic sweep.
+ */
+final class QualcommBackend extends ReflectiveBackend {
+	final static String CLASS_NAME = "android.telephony.MSimTelephonyManager";
+	private final static String[] METHOD_SUFFIXES = preferring("");
+
+	QualcommBackend(Object teleMgr, Class<?> teleClass, ProbeProfile profile) {
+		super(teleMgr, teleClass, profile, METHOD_SUFFIXES, true);
+	}
+
+	@Override public String name() { return "qualcomm"; }
+}
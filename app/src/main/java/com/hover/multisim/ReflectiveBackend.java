@@ -0,0 +1,145 @@
+package com.hover.multisim;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The generic fallback for any telephony manager or class. At construction each getter is bound to the methods which exist on the
+ * class, in the order the suffix sweep would try them, or to the single suffix the probe profile already knows answers.
+ */
+class ReflectiveBackend implements TelephonyBackend {
+	final static String[] METHOD_SUFFIXES = new String[] {
+			"",
+			"Gemini",
+			"Ext",
+			"Ds",
+			"ForSubscription",
+			"ForPhone"
+	};
+
+	private final Object receiver;
+	private final Class<?> teleClass;
+	private final ProbeProfile profile;
+
+	private final Probe simState, deviceId, imei, iccId, imsi, simOperator, simOperatorName, simCountryIso;
+	private final Probe networkOperator, networkOperatorName, networkCountryIso, networkType, networkRoaming;
+
+	ReflectiveBackend(Object teleMgr, Class<?> teleClass, ProbeProfile profile) {
+		this(teleMgr, teleClass, profile, METHOD_SUFFIXES, true);
+	}
+
+	ReflectiveBackend(Object teleMgr, Class<?> teleClass, ProbeProfile profile, String[] methodSuffixes, boolean allowNoParam) {
+		this.receiver = teleMgr != null ? teleMgr : teleClass;
+		this.teleClass = teleClass;
+		this.profile = profile;
+
+		simState = bind("getSimState", methodSuffixes, allowNoParam);
+		deviceId = bind("getDeviceId", methodSuffixes, allowNoParam);
+		imei = bind("getImei", methodSuffixes, allowNoParam);
+		iccId = bind("getSimSerialNumber", methodSuffixes, allowNoParam);
+		imsi = bind("getSubscriberId", methodSuffixes, allowNoParam);
+		simOperator = bind("getSimOperator", methodSuffixes, allowNoParam);
+		simOperatorName = bind("getSimOperatorName", methodSuffixes, allowNoParam);
+		simCountryIso = bind("getSimCountryIso", methodSuffixes, allowNoParam);
+		networkOperator = bind("getNetworkOperator", methodSuffixes, allowNoParam);
+		networkOperatorName = bind("getNetworkOperatorName", methodSuffixes, allowNoParam);
+		networkCountryIso = bind("getNetworkCountryIso", methodSuffixes, allowNoParam);
+		networkType = bind("getNetworkType", methodSuffixes, allowNoParam);
+		networkRoaming = bind("isNetworkRoaming", methodSuffixes, allowNoParam);
+	}
+
+	/**
+	 * @return the given suffixes, followed by the rest of the generic sweep so that a vendor backend still falls back to it
+	 */
+	static String[] preferring(String... suffixes) {
+		List<String> ordered = new ArrayList<>(Arrays.asList(suffixes));
+		for (String suffix : METHOD_SUFFIXES)
+			if (!ordered.contains(suffix)) ordered.add(suffix);
+		return ordered.toArray(new String[ordered.size()]);
+	}
+
+	@Override public String name() { return "reflective"; }
+
+	@Override public Integer simState(int slotIdx) { return (Integer) simState.invoke(slotIdx); }
+	@Override public String deviceId(int slotIdx) {
+		String id = (String) deviceId.invoke(slotIdx);
+		return id != null ? id : (String) imei.invoke(slotIdx);
+	}
+
+	@Override public String iccId(int subscriptionId) { return (String) iccId.invoke(subscriptionId); }
+	@Override public String imsi(int subscriptionId) { return (String) imsi.invoke(subscriptionId); }
+	@Override public String simOperator(int subscriptionId) { return (String) simOperator.invoke(subscriptionId); }
+	@Override public String simOperatorName(int subscriptionId) { return (String) simOperatorName.invoke(subscriptionId); }
+	@Override public String simCountryIso(int subscriptionId) { return (String) simCountryIso.invoke(subscriptionId); }
+
+	@Override public String networkOperator(int subscriptionId) { return (String) networkOperator.invoke(subscriptionId); }
+	@Override public String networkOperatorName(int subscriptionId) { return (String) networkOperatorName.invoke(subscriptionId); }
+	@Override public String networkCountryIso(int subscriptionId) { return (String) networkCountryIso.invoke(subscriptionId); }
+	@Override public Integer networkType(int subscriptionId) { return (Integer) networkType.invoke(subscriptionId); }
+	@Override public Boolean networkRoaming(int subscriptionId) { return (Boolean) networkRoaming.invoke(subscriptionId); }
+
+	private Probe bind(String methodName, String[] methodSuffixes, boolean allowNoParam) {
+		List<Method> methods = new ArrayList<>();
+		List<String> signatures = new ArrayList<>();
+		if (teleClass == null) return new Probe(methodName, methods, signatures);
+
+		MethodIndex index = MethodIndex.of(teleClass);
+		String known = profile != null ? profile.getSuffix(teleClass, methodName) : null;
+		if (known != null) {
+			add(index, methodName, known, methods, signatures);
+			return new Probe(methodName, methods, null);
+		}
+		String hint = profile != null ? profile.getHint(teleClass, methodName) : null;
+		if (hint != null)
+			add(index, methodName, hint, methods, signatures);
+		for (String methodSuffix : methodSuffixes)
+			add(index, methodName, methodSuffix + ":1", methods, signatures);
+		if (allowNoParam)
+			for (String methodSuffix : methodSuffixes)
+				add(index, methodName, methodSuffix + ":0", methods, signatures);
+		return new Probe(methodName, methods, signatures);
+	}
+
+	private static void add(MethodIndex index, String methodName, String signature, List<Method> methods, List<String> signatures) {
+		if (signatures.contains(signature)) return;
+		boolean withParam = signature.endsWith(":1");
+		Method method = index.find(methodName + signature.substring(0, signature.lastIndexOf(':')), withParam ? new Object[]{ 0 } : null);
+		if (method != null) {
+			methods.add(method);
+			signatures.add(signature);
+		}
+	}
+
+	/**
+	 * The methods bound to one getter. Tried in order until one answers; the first to answer is recorded in the probe profile
+	 * unless the profile already knew it.
+	 */
+	private final class Probe {
+		private final String methodName;
+		private final Method[] methods;
+		private final boolean[] withParam;
+		private final String[] signatures;
+
+		Probe(String methodName, List<Method> methods, List<String> signatures) {
+			this.methodName = methodName;
+			this.methods = methods.toArray(new Method[methods.size()]);
+			this.withParam = new boolean[this.methods.length];
+			for (int i = 0; i < this.methods.length; i++)
+				withParam[i] = this.methods[i].getParameterTypes().length == 1;
+			this.signatures = signatures != null ? signatures.toArray(new String[signatures.size()]) : null;
+		}
+
+		Object invoke(int param) {
+			for (int i = 0; i < methods.length; i++) {
+				Object result = ProbeGuard.invoke(methods[i], receiver, withParam[i] ? new Object[]{ param } : null);
+				if (result != null) {
+					if (signatures != null && profile != null) profile.recordSuffix(teleClass, methodName, signatures[i]);
+					return result;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.hover.multisim;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses a burst of SIM and service state triggers into a single scan. A scan starts once no trigger has arrived for the settle
+ * window, or once the first trigger of the burst is maxLatency old, whichever comes first. Triggers which arrive while a scan is
+ * running are guaranteed a trailing scan after it finishes. The requests of every trigger in a burst are merged into the one the
+ * scan receives.
+ */
+final class ScanCoalescer {
+	private final static String TAG = "ScanCoalescer";
+	private final static ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(Utils.daemonThreads("MultiSimCoalescer"));
+
+	interface Scanner {
+		void scan(ScanRequest request);
+	}
+
+	private final Scanner scanner;
+	private final Executor executor;
+	private final long settleMs, maxLatencyMs;
+
+	private ScheduledFuture<?> pending = null;
+	private long burstStart = -1;
+	private boolean running = false, dirty = false;
+	private int burstTriggers = 0;
+	private ScanRequest request = null, inFlight = null;
+
+	ScanCoalescer(Scanner scanner, Executor executor, long settleMs, long maxLatencyMs) {
+		this.scanner = scanner;
+		this.executor = executor;
+		this.settleMs = settleMs;
+		this.maxLatencyMs = maxLatencyMs;
+	}
+
+	synchronized void trigger(ScanRequest triggered) {
+		burstTriggers++;
+		if (request == null) request = triggered;
+		else request.merge(triggered);
+		if (running) {
+			dirty = true;
+			return;
+		}
+		long now = SystemClock.elapsedRealtime();
+		if (burstStart < 0) burstStart = now;
+		if (pending != null) pending.cancel(false);
+		long delay = Math.max(0, Math.min(settleMs, burstStart + maxLatencyMs - now));
+		pending = timer.schedule(fire, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Like trigger(), but a request is merged into the scan already queued rather than delaying it, and needs no scan of its own
+	 * while a full scan is running
+	 */
+	synchronized void join(ScanRequest joining) {
+		if (running && !dirty && inFlight.isFull()) return;
+		if (pending != null || dirty) {
+			burstTriggers++;
+			request.merge(joining);
+		} else trigger(joining);
+	}
+
+	/**
+	 * @return whether a scan is queued or running
+	 */
+	synchronized boolean isBusy() { return pending != null || running; }
+
+	static ScheduledFuture<?> schedule(Runnable r, long delayMs) {
+		return timer.schedule(r, delayMs, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable fire = new Runnable() {
+		@Override
+		public void run() {
+			final ScanRequest scanRequest;
+			synchronized (ScanCoalescer.this) {
+				if (pending == null || running) return;
+				pending = null;
+				burstStart = -1;
+				running = true;
+				scanRequest = request != null ? request : ScanRequest.full();
+				inFlight = scanRequest;
+				request = null;
+				Log.v(TAG, "Coalesced " + burstTriggers + " trigger(s) into one scan of " + scanRequest);
+				burstTriggers = 0;
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						scanner.scan(scanRequest);
+					} finally { finish(); }
+				}
+			});
+		}
+	};
+
+	private synchronized void finish() {
+		running = false;
+		inFlight = null;
+		if (dirty) {
+			dirty = false;
+			ScanRequest trailing = request;
+			request = null;
+			burstTriggers--;
+			trigger(trailing != null ? trailing : ScanRequest.full());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.hover.multisim;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a coalesced burst of triggers needs rescanned: everything, only the slots named by the events, or only the network fields
+ * of the subscriptions whose service state changed. Merging any full request makes the result full.
+ */
+final class ScanRequest {
+	private boolean full;
+	private final Set<Integer> slots = new TreeSet<>();
+	private final Set<Integer> networkSubIds = new TreeSet<>();
+
+	/**
+	 * A network refresh for this subscription ID refreshes every present SIM, for listeners which aren't tied to a subscription
+	 */
+	final static int ALL_SUBSCRIPTIONS = -1;
+
+	private ScanRequest(boolean full) { this.full = full; }
+
+	static ScanRequest full() { return new ScanRequest(true); }
+
+	static ScanRequest forSlot(int slotIdx) {
+		ScanRequest request = new ScanRequest(false);
+		request.slots.add(slotIdx);
+		return request;
+	}
+
+	static ScanRequest forNetwork(int subscriptionId) {
+		ScanRequest request = new ScanRequest(false);
+		request.networkSubIds.add(subscriptionId < 0 ? ALL_SUBSCRIPTIONS : subscriptionId);
+		return request;
+	}
+
+	boolean isFull() { return full; }
+
+	boolean isNetworkOnly() { return !full && slots.isEmpty() && !networkSubIds.isEmpty(); }
+
+	Set<Integer> getSlots() { return Collections.unmodifiableSet(slots); }
+
+	Set<Integer> getNetworkSubIds() { return Collections.unmodifiableSet(networkSubIds); }
+
+	void merge(ScanRequest other) {
+		if (other.full) {
+			full = true;
+			slots.clear();
+			networkSubIds.clear();
+		} else if (!full) {
+			slots.addAll(other.slots);
+			networkSubIds.addAll(other.networkSubIds);
+		}
+	}
+
+	@Override
+	public String toString() { return full ? "full" : "slots " + slots + ", network " + networkSubIds; }
+}
@@ -0,0 +1,56 @@
+package com.hover.multisim;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a periodic run is due to scan. WorkManager wakes the worker at its shortest period, but each scan which finds
+ * nothing new doubles the time before the next one is due, up to a day. A detected change or a relevant SIM broadcast drops it
+ * back to every run. The history is kept in shared preferences so it survives process restarts.
+ */
+final class ScanSchedule {
+	private final static String TAG = "ScanSchedule";
+	private final static String KEY_UNCHANGED = "scan_unchanged_count", KEY_LAST_SCAN = "scan_last_at";
+	final static long MIN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(15);
+	private final static long MAX_INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+	private final static long SLACK_MS = TimeUnit.MINUTES.toMillis(1); // Periodic runs can fire a little early within their flex window
+
+	private ScanSchedule() {}
+
+	/**
+	 * @return true if enough time has passed since the last scan, given how many scans in a row have found no change
+	 */
+	static boolean isDue(Context c) {
+		SharedPreferences prefs = Utils.getSharedPrefs(c);
+		long lastScan = prefs.getLong(KEY_LAST_SCAN, 0), now = System.currentTimeMillis();
+		long interval = getInterval(prefs.getInt(KEY_UNCHANGED, 0));
+		if (now < lastScan) return true; // The clock went backwards
+		boolean due = now - lastScan + SLACK_MS >= interval;
+		if (!due) Log.v(TAG, "Skipping periodic scan, next due in " + TimeUnit.MILLISECONDS.toMinutes(interval - (now - lastScan)) + " min");
+		return due;
+	}
+
+	static long getInterval(int unchangedCount) {
+		return unchangedCount >= 7 ? MAX_INTERVAL_MS : Math.min(MAX_INTERVAL_MS, MIN_INTERVAL_MS << unchangedCount);
+	}
+
+	/**
+	 * Records a finished scan, resetting the back-off if it found a change
+	 */
+	static void scanned(Context c, boolean changed) {
+		SharedPreferences prefs = Utils.getSharedPrefs(c);
+		int unchanged = changed ? 0 : Math.min(prefs.getInt(KEY_UNCHANGED, 0) + 1, 64);
+		prefs.edit().putInt(KEY_UNCHANGED, unchanged).putLong(KEY_LAST_SCAN, System.currentTimeMillis()).apply();
+	}
+
+	/**
+	 * Makes the next periodic run scan again, for when a broadcast says the SIMs may have changed
+	 */
+	static void reset(Context c) {
+		SharedPreferences prefs = Utils.getSharedPrefs(c);
+		if (prefs.getInt(KEY_UNCHANGED, 0) != 0) prefs.edit().putInt(KEY_UNCHANGED, 0).apply();
+	}
+}
@@ -0,0 +1,16 @@
+package com.hover.multisim;
+
+import java.util.List;
+
+/**
+ * One way of finding the SIMs which are present. The worker tries its strategies in order and uses the first one which can
+ * account for every SIM.
+ */
+interface ScanStrategy {
+	String name();
+
+	/**
+	 * @return the unique SIMs found, or null if this strategy couldn't account for every SIM and the next one should run
+	 */
+	List<SimInfo> findSims() throws Exception;
+}
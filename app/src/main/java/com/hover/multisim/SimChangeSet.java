@@ -0,0 +1,102 @@
+package com.hover.multisim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What changed between two lists of present SIMs, matched by ICCID. A SIM can be in more than one of moved, subscription changed
+ * and network changed.
+ */
+final public class SimChangeSet {
+	private final List<SimInfo> inserted, removed, moved, subscriptionChanged, networkChanged;
+
+	private SimChangeSet(List<SimInfo> inserted, List<SimInfo> removed, List<SimInfo> moved, List<SimInfo> subscriptionChanged, List<SimInfo> networkChanged) {
+		this.inserted = Collections.unmodifiableList(inserted);
+		this.removed = Collections.unmodifiableList(removed);
+		this.moved = Collections.unmodifiableList(moved);
+		this.subscriptionChanged = Collections.unmodifiableList(subscriptionChanged);
+		this.networkChanged = Collections.unmodifiableList(networkChanged);
+	}
+
+	/**
+	 * SIMs which weren't present before, including any which couldn't be identified because no ICCID was reported
+	 */
+	public List<SimInfo> getInserted() { return inserted; }
+	/**
+	 * SIMs which were present before but are not anymore. These are the previous values, so slotIdx is the slot they were in
+	 */
+	public List<SimInfo> getRemoved() { return removed; }
+	/**
+	 * SIMs which are now in a different slot
+	 */
+	public List<SimInfo> getMoved() { return moved; }
+	/**
+	 * SIMs which Android has assigned a new Subscription ID
+	 */
+	public List<SimInfo> getSubscriptionChanged() { return subscriptionChanged; }
+	/**
+	 * SIMs whose network operator, network country, network type or roaming state changed
+	 */
+	public List<SimInfo> getNetworkChanged() { return networkChanged; }
+
+	public boolean isEmpty() {
+		return inserted.isEmpty() && removed.isEmpty() && moved.isEmpty() && subscriptionChanged.isEmpty() && networkChanged.isEmpty();
+	}
+
+	/**
+	 * @return the changes from oldList to newList. Both must already be unique by ICCID, see unique(). A null oldList means
+	 * nothing was present before.
+	 */
+	static SimChangeSet compute(List<SimInfo> oldList, List<SimInfo> newList) {
+		List<SimInfo> inserted = new ArrayList<>(), removed = new ArrayList<>(), moved = new ArrayList<>(), subscriptionChanged = new ArrayList<>(), networkChanged = new ArrayList<>();
+		Map<String, SimInfo> oldByIccId = new HashMap<>();
+		if (oldList != null)
+			for (SimInfo si : oldList)
+				if (si.iccId != null) oldByIccId.put(si.iccId, si);
+
+		Set<String> newIccIds = new HashSet<>();
+		for (SimInfo si : newList) {
+			SimInfo old = si.iccId != null ? oldByIccId.get(si.iccId) : null;
+			if (si.iccId != null) newIccIds.add(si.iccId);
+			if (old == null) {
+				inserted.add(si);
+				continue;
+			}
+			if (old.slotIdx != si.slotIdx) moved.add(si);
+			if (old.subscriptionId != si.subscriptionId) subscriptionChanged.add(si);
+			if (isNetworkChanged(old, si)) networkChanged.add(si);
+		}
+		if (oldList != null)
+			for (SimInfo si : oldList)
+				if (si.iccId == null || !newIccIds.contains(si.iccId)) removed.add(si);
+		return new SimChangeSet(inserted, removed, moved, subscriptionChanged, networkChanged);
+	}
+
+	private static boolean isNetworkChanged(SimInfo old, SimInfo si) {
+		return !Utils.equals(old.networkOperator, si.networkOperator) || !Utils.equals(old.networkOperatorName, si.networkOperatorName) ||
+			       !Utils.equals(old.networkCountryIso, si.networkCountryIso) || old.networkType != si.networkType || old.networkRoaming != si.networkRoaming;
+	}
+
+	/**
+	 * @return simInfos without the later SIMs which repeat an ICCID, in order. SIMs without an ICCID can't be matched so are all kept.
+	 */
+	static List<SimInfo> unique(List<SimInfo> simInfos) {
+		List<SimInfo> uniqueSimInfos = new ArrayList<>(simInfos.size());
+		Set<String> iccIds = new HashSet<>();
+		for (SimInfo simInfo : simInfos)
+			if (simInfo.iccId == null || iccIds.add(simInfo.iccId))
+				uniqueSimInfos.add(simInfo);
+		return uniqueSimInfos;
+	}
+
+	@Override
+	public String toString() {
+		return "inserted=" + inserted.size() + ", removed=" + removed.size() + ", moved=" + moved.size() +
+			       ", subscription changed=" + subscriptionChanged.size() + ", network changed=" + networkChanged.size();
+	}
+}
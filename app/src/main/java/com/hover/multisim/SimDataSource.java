@@ -3,10 +3,22 @@ package com.hover.multisim;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.sentry.Sentry;
 
@@ -14,74 +26,213 @@ final public class SimDataSource extends DataSource {
 	private final static String TAG = "SimDataSource";
 	private final String TABLE = SimContract.TABLE_NAME;
 	private final String[] COLUMNS = SimContract.allColumns;
+	private final static int MAX_ARGS = 900; // SQLite allows at most 999 bound arguments per statement
+	private final static String ICCID_SELECTION = SimContract.COLUMN_ICCID + " = ?";
+	// A scan can fail to read any of these, for example when a probe times out, so a null never replaces the stored value
+	private final static Set<String> NOT_NULL_COLUMNS = new HashSet<>(Arrays.asList(SimContract.COLUMN_SLOT_IDX, SimContract.COLUMN_SUB_ID,
+		SimContract.COLUMN_IMSI, SimContract.COLUMN_MCC, SimContract.COLUMN_ICCID, SimContract.COLUMN_ROAMING));
+	private final static String MARK_REMOVED = "UPDATE " + SimContract.TABLE_NAME + " SET " + SimContract.COLUMN_SLOT_IDX + " = -1 WHERE " + ICCID_SELECTION;
 
 	public SimDataSource(Context context) { super(context); }
 
+	/**
+	 * What a save did to the stored row for a SIM. Rows are compared with the snapshot first, so that only the columns which
+	 * changed are written, and nothing at all when none did.
+	 */
+	enum Outcome { UNCHANGED, UPDATED, INSERTED, FAILED }
+
 	@SuppressWarnings("UnusedReturnValue")
-	long saveToDb(SimInfo simInfo) {
-		ContentValues cv = getContentValues(simInfo);
-		open();
-		long insertId = database.insert(TABLE, null, cv);
-		close();
-		Log.d(TAG, "Saved Sim with imsi: " + simInfo.imsi + ", iccid: " + simInfo.iccId + ". Id: " + insertId);
-		return insertId;
+	Outcome saveToDb(SimInfo simInfo) {
+		Outcome outcome = upsert(Collections.singletonList(simInfo), false).get(0);
+		Log.d(TAG, "Saved Sim with imsi: " + simInfo.imsi + ", iccid: " + simInfo.iccId + ". " + outcome);
+		return outcome;
 	}
 
-	public List<SimInfo> getAll() {
-		List<SimInfo> infos = new ArrayList<>();
-		try {
+	/**
+	 * Writes the full set of SIMs found by a scan in one transaction: each present SIM is upserted and every other stored SIM is
+	 * marked removed. Nothing is read back, the snapshot is updated in memory.
+	 *
+	 * @return the outcome for each SIM in present, in order
+	 */
+	List<Outcome> saveAll(List<SimInfo> present) {
+		return upsert(present, true);
+	}
+
+	private List<Outcome> upsert(List<SimInfo> sims, boolean markAbsent) {
+		List<Outcome> outcomes = new ArrayList<>(sims.size());
+		List<ContentValues> inserts = new ArrayList<>();
+		List<Integer> insertAt = new ArrayList<>();
+		Map<String, ContentValues> updates = new LinkedHashMap<>();
+		Map<String, Integer> updateAt = new HashMap<>();
+		List<SimInfo> inserted = new ArrayList<>();
+		synchronized (SimSnapshot.LOCK) {
+			SimSnapshot snapshot = SimSnapshot.get(this);
+			Set<String> seen = new HashSet<>();
+			for (SimInfo simInfo : sims) {
+				ContentValues cv = getContentValues(simInfo);
+				String iccId = cv.getAsString(SimContract.COLUMN_ICCID);
+				SimInfo stored = snapshot.peek(iccId);
+				if (iccId == null) outcomes.add(Outcome.FAILED);
+				else if (!seen.add(iccId)) outcomes.add(Outcome.UNCHANGED);
+				else if (stored == null) {
+					inserts.add(cv);
+					insertAt.add(outcomes.size());
+					outcomes.add(Outcome.INSERTED);
+				} else {
+					ContentValues changed = getChanged(cv, getContentValues(stored));
+					if (changed.size() > 0) { updates.put(iccId, changed); updateAt.put(iccId, outcomes.size()); }
+					outcomes.add(changed.size() > 0 ? Outcome.UPDATED : Outcome.UNCHANGED);
+				}
+			}
+			if (markAbsent) {
+				for (SimInfo stored : snapshot.rows()) {
+					if (stored.slotIdx != -1 && !seen.contains(stored.iccId)) {
+						ContentValues cv = new ContentValues();
+						cv.put(SimContract.COLUMN_SLOT_IDX, -1);
+						updates.put(stored.iccId, cv);
+					}
+				}
+			}
+			if (inserts.isEmpty() && updates.isEmpty()) return outcomes;
+
 			open();
-			Cursor cursor = database.query(TABLE, COLUMNS, null, null, null, null, null);
-			cursor.moveToFirst();
-			while (!cursor.isAfterLast()) {
-				SimInfo si = cursorToSimInfo(cursor);
-				infos.add(si);
-				cursor.moveToNext();
+			database.beginTransaction();
+			try {
+				for (int i = 0; i < inserts.size(); i++) {
+					if (database.insert(TABLE, null, inserts.get(i)) != -1)
+						inserted.add(apply(new SimInfo(), inserts.get(i)));
+					else
+						outcomes.set(insertAt.get(i), Outcome.FAILED);
+				}
+				SQLiteStatement markRemoved = null;
+				Iterator<Map.Entry<String, ContentValues>> it = updates.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<String, ContentValues> update = it.next();
+					if (isRemoval(update.getValue())) {
+						if (markRemoved == null) markRemoved = database.compileStatement(MARK_REMOVED);
+						markRemoved.bindString(1, update.getKey());
+						markRemoved.executeUpdateDelete();
+					} else {
+						try {
+							database.update(TABLE, update.getValue(), ICCID_SELECTION, new String[] { update.getKey() });
+						} catch (SQLException e) { // Like a failed insert, lose only this SIM's update rather than the whole scan's
+							Log.w(TAG, "Failed to update Sim with iccid: " + update.getKey(), e);
+							Sentry.capture(e);
+							Integer at = updateAt.get(update.getKey());
+							if (at != null) outcomes.set(at, Outcome.FAILED);
+							it.remove();
+						}
+					}
+				}
+				if (markRemoved != null) markRemoved.close();
+				database.setTransactionSuccessful();
+			} finally {
+				database.endTransaction();
+				close();
 			}
-			cursor.close();
-			close();
+			SimSnapshot.apply(inserted, updates);
+		}
+		Log.d(TAG, "Inserted " + inserted.size() + " Sims, updated " + updates.size());
+		return outcomes;
+	}
+
+	private static boolean isRemoval(ContentValues cv) {
+		return cv.size() == 1 && Integer.valueOf(-1).equals(cv.getAsInteger(SimContract.COLUMN_SLOT_IDX));
+	}
+
+	/**
+	 * @return the columns of cv whose value differs from the stored row's, leaving out nulls for columns which can't be null
+	 */
+	private static ContentValues getChanged(ContentValues cv, ContentValues stored) {
+		ContentValues changed = new ContentValues();
+		for (String column : cv.keySet()) {
+			Object value = cv.get(column);
+			if (value == null && NOT_NULL_COLUMNS.contains(column)) continue;
+			if (!Utils.equals(value, stored.get(column))) {
+				if (value == null) changed.putNull(column);
+				else if (value instanceof Integer) changed.put(column, (Integer) value);
+				else changed.put(column, value.toString());
+			}
+		}
+		return changed;
+	}
+
+	public List<SimInfo> getAll() {
+		try {
+			return SimSnapshot.get(this).all();
 		} catch (Exception e) { Sentry.capture(e); }
-		return infos;
+		return new ArrayList<>();
 	}
 
-	public SimInfo get(int slotIdx) {
-		return load(SimContract.COLUMN_SLOT_IDX + " = " + slotIdx);
+	List<SimInfo> readAll() {
+		return query(null, null);
 	}
-	@SuppressWarnings("unused")
-	public SimInfo loadBy(String iccId) {
-		return load(SimContract.COLUMN_ICCID + " = '" + iccId + "'");
+
+	/**
+	 * @return every SIM which is in a slot. Uses the snapshot if one is loaded, otherwise a single query on the slot index so a cold
+	 * caller doesn't need to read the whole SIM history.
+	 */
+	List<SimInfo> getPresent() {
+		SimSnapshot snapshot = SimSnapshot.getIfLoaded();
+		if (snapshot != null) return snapshot.present();
+		return query(SimContract.COLUMN_SLOT_IDX + " >= 0", null);
 	}
-	private SimInfo load(String selection) {
-		open();
-		SimInfo si = null;
-		Cursor cursor = database.query(TABLE, COLUMNS, selection, null, null, null, null);
-		cursor.moveToFirst();
-		if (!cursor.isAfterLast())
-			si = cursorToSimInfo(cursor);
-		else
-			Log.d(TAG, "didn't load cursor...");
 
-		cursor.close();
-		close();
-		return si;
+	/**
+	 * Loads the stored SIMs with any of the given ICCIDs, in table order. ICCIDs which aren't stored are skipped.
+	 */
+	public List<SimInfo> loadByIccIds(Collection<String> iccIds) {
+		Set<String> wanted = new LinkedHashSet<>(iccIds);
+		wanted.remove(null);
+		SimSnapshot snapshot = SimSnapshot.getIfLoaded();
+		if (snapshot != null) return snapshot.byIccIds(wanted);
+
+		List<SimInfo> infos = new ArrayList<>();
+		List<String> args = new ArrayList<>(wanted);
+		for (int start = 0; start < args.size(); start += MAX_ARGS) {
+			List<String> chunk = args.subList(start, Math.min(args.size(), start + MAX_ARGS));
+			infos.addAll(query(getInSelection(SimContract.COLUMN_ICCID, chunk.size()), chunk.toArray(new String[0])));
+		}
+		return infos;
 	}
 
-	@SuppressWarnings("UnnecessaryUnboxing")
-	public List<SimInfo> getPresent(String mcc, String mnc) {
-		List<SimInfo> matchingSims = new ArrayList<>();
+	private static String getInSelection(String column, int count) {
+		StringBuilder selection = new StringBuilder(column).append(" IN (?");
+		for (int i = 1; i < count; i++) selection.append(",?");
+		return selection.append(')').toString();
+	}
+
+	private List<SimInfo> query(String selection, String[] selectionArgs) {
+		List<SimInfo> infos = new ArrayList<>();
 		open();
-		Cursor cursor = database.query(TABLE, COLUMNS, SimContract.COLUMN_MCC + " = '" + mcc + "' AND " + SimContract.COLUMN_SLOT_IDX + " != -1", null, null, null, null);
+		Cursor cursor = database.query(TABLE, COLUMNS, selection, selectionArgs, null, null, null);
 		cursor.moveToFirst();
-		int mncInt = Integer.valueOf(mnc).intValue();
 		while (!cursor.isAfterLast()) {
 			SimInfo si = cursorToSimInfo(cursor);
-			if (si.isMncMatch(mncInt))
-				matchingSims.add(si);
+			infos.add(si);
 			cursor.moveToNext();
 		}
 		cursor.close();
 		close();
-		return matchingSims;
+		return infos;
+	}
+
+	public SimInfo get(int slotIdx) {
+		SimInfo si = SimSnapshot.get(this).bySlot(slotIdx);
+		if (si == null) Log.d(TAG, "didn't load cursor...");
+		return si;
+	}
+	@SuppressWarnings("unused")
+	public SimInfo loadBy(String iccId) {
+		return SimSnapshot.get(this).byIccId(iccId);
+	}
+
+	public List<SimInfo> getPresent(String mcc, String mnc) {
+		return getPresentByHni(Collections.singletonList(mcc + mnc));
+	}
+
+	List<SimInfo> getPresentByHni(List<String> hnis) {
+		return SimSnapshot.get(this).presentByHni(hnis);
 	}
 
 	void remove(SimInfo si) {
@@ -103,21 +254,28 @@ final public class SimDataSource extends DataSource {
 //		update(cv, si.iccId);
 //	}
 
-//	void updateNetwork(SimInfo si, String operator, String name, String countryIso, int type, int roaming) {
-//		ContentValues cv = new ContentValues();
-//		cv.put(SimContract.COLUMN_NETWORK_CODE, operator);
-//		cv.put(SimContract.COLUMN_NETWORK_NAME, name);
-//		cv.put(SimContract.COLUMN_NETWORK_COUNTRY, countryIso);
-//		cv.put(SimContract.COLUMN_NETWORK_TYPE, type);
-//		cv.put(SimContract.COLUMN_ROAMING, roaming);
-//
-//		update(cv, si.iccId);
-//	}
+	void updateNetwork(SimInfo si, String operator, String name, String countryIso, int type, int roaming) {
+		ContentValues cv = new ContentValues();
+		cv.put(SimContract.COLUMN_NETWORK_CODE, operator);
+		cv.put(SimContract.COLUMN_NETWORK_NAME, name);
+		cv.put(SimContract.COLUMN_NETWORK_COUNTRY, countryIso);
+		cv.put(SimContract.COLUMN_NETWORK_TYPE, type);
+		cv.put(SimContract.COLUMN_ROAMING, roaming);
+
+		update(cv, si.iccId);
+	}
 
 	private void update(ContentValues cv, String iccId) {
-		open();
-		database.update(TABLE, cv, SimContract.COLUMN_ICCID + " = '" + iccId + "'", null);
-		close();
+		synchronized (SimSnapshot.LOCK) {
+			SimInfo stored = SimSnapshot.get(this).peek(iccId);
+			if (stored == null) return;
+			ContentValues changed = getChanged(cv, getContentValues(stored));
+			if (changed.size() == 0) return;
+			open();
+			database.update(TABLE, changed, ICCID_SELECTION, new String[] { iccId });
+			close();
+			SimSnapshot.apply(Collections.<SimInfo>emptyList(), Collections.singletonMap(iccId, changed));
+		}
 	}
 
 	private ContentValues getContentValues(SimInfo simInfo) {
@@ -163,6 +321,38 @@ final public class SimDataSource extends DataSource {
 		simInfo.networkOperatorName = c.getString(c.getColumnIndex(SimContract.COLUMN_NETWORK_NAME));
 		simInfo.networkCountryIso = c.getString(c.getColumnIndex(SimContract.COLUMN_NETWORK_COUNTRY));
 		simInfo.networkType = c.getInt(c.getColumnIndex(SimContract.COLUMN_NETWORK_TYPE));
+		simInfo.parseHni();
 		return simInfo;
 	}
+
+	/**
+	 * Sets the fields of simInfo which cv has a column for, the same way a read back from the table would
+	 */
+	static SimInfo apply(SimInfo simInfo, ContentValues cv) {
+		if (cv.containsKey(SimContract.COLUMN_SLOT_IDX)) simInfo.slotIdx = cv.getAsInteger(SimContract.COLUMN_SLOT_IDX);
+		if (cv.containsKey(SimContract.COLUMN_SUB_ID)) simInfo.subscriptionId = cv.getAsInteger(SimContract.COLUMN_SUB_ID);
+		if (cv.containsKey(SimContract.COLUMN_IMEI)) simInfo.imei = cv.getAsString(SimContract.COLUMN_IMEI);
+		if (cv.containsKey(SimContract.COLUMN_STATE)) simInfo.simState = cv.getAsInteger(SimContract.COLUMN_STATE);
+
+		if (cv.containsKey(SimContract.COLUMN_IMSI)) simInfo.imsi = cv.getAsString(SimContract.COLUMN_IMSI);
+		if (cv.containsKey(SimContract.COLUMN_MCC)) simInfo.mcc = cv.getAsString(SimContract.COLUMN_MCC);
+		if (cv.containsKey(SimContract.COLUMN_MNC)) simInfo.mnc = cv.getAsString(SimContract.COLUMN_MNC);
+		if (cv.containsKey(SimContract.COLUMN_ICCID)) simInfo.iccId = cv.getAsString(SimContract.COLUMN_ICCID);
+		if (cv.containsKey(SimContract.COLUMN_OP)) simInfo.hni = cv.getAsString(SimContract.COLUMN_OP);
+		if (cv.containsKey(SimContract.COLUMN_OP_NAME)) simInfo.operatorName = cv.getAsString(SimContract.COLUMN_OP_NAME);
+		if (cv.containsKey(SimContract.COLUMN_COUNTRY_ISO)) simInfo.countryIso = cv.getAsString(SimContract.COLUMN_COUNTRY_ISO);
+		if (cv.containsKey(SimContract.COLUMN_ROAMING)) simInfo.networkRoaming = getInt(cv, SimContract.COLUMN_ROAMING, 0) == 1;
+
+		if (cv.containsKey(SimContract.COLUMN_NETWORK_CODE)) simInfo.networkOperator = cv.getAsString(SimContract.COLUMN_NETWORK_CODE);
+		if (cv.containsKey(SimContract.COLUMN_NETWORK_NAME)) simInfo.networkOperatorName = cv.getAsString(SimContract.COLUMN_NETWORK_NAME);
+		if (cv.containsKey(SimContract.COLUMN_NETWORK_COUNTRY)) simInfo.networkCountryIso = cv.getAsString(SimContract.COLUMN_NETWORK_COUNTRY);
+		if (cv.containsKey(SimContract.COLUMN_NETWORK_TYPE)) simInfo.networkType = getInt(cv, SimContract.COLUMN_NETWORK_TYPE, 0);
+		simInfo.parseHni();
+		return simInfo;
+	}
+
+	private static int getInt(ContentValues cv, String column, int defaultValue) {
+		Integer value = cv.getAsInteger(column);
+		return value != null ? value : defaultValue;
+	}
 }
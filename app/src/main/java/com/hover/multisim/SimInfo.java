@@ -12,6 +12,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import io.sentry.Sentry;
@@ -47,6 +48,11 @@ public class SimInfo {
 	String mcc;
 	String mnc;
 
+	// Parsed once from mcc and imsi so that HNI matching is int comparisons. -1 where there isn't a value.
+	private String parsedMcc, parsedImsi;
+	int mccDigits = -1;
+	private int mnc1Digit = -1, mnc2Digits = -1, mnc3Digits = -1;
+
 	int simState = -1;
 
 	protected String hni;
@@ -95,24 +101,74 @@ public class SimInfo {
 
 	public SimInfo() {}
 
+	SimInfo(SimInfo other) {
+		slotIdx = other.slotIdx;
+		subscriptionId = other.subscriptionId;
+		imei = other.imei;
+		simState = other.simState;
+		iccId = other.iccId;
+		imsi = other.imsi;
+		mcc = other.mcc;
+		mnc = other.mnc;
+		parsedMcc = other.parsedMcc;
+		parsedImsi = other.parsedImsi;
+		mccDigits = other.mccDigits;
+		mnc1Digit = other.mnc1Digit;
+		mnc2Digits = other.mnc2Digits;
+		mnc3Digits = other.mnc3Digits;
+
+		hni = other.hni;
+		operatorName = other.operatorName;
+		countryIso = other.countryIso;
+		networkOperator = other.networkOperator;
+		networkOperatorName = other.networkOperatorName;
+		networkCountryIso = other.networkCountryIso;
+		networkType = other.networkType;
+		networkRoaming = other.networkRoaming;
+	}
+
 	public SimInfo(SlotManager slotMgr) {
+		setIdentity(slotMgr);
+		enrich(slotMgr, null);
+	}
+
+	/**
+	 * The cheap first phase of building a SimInfo from a slot: its slot, subscription ID, IMEI, state and ICCID, reusing the values
+	 * SlotManager read to decide the slot was READY. Only SIMs which survive deduplication need enrich().
+	 */
+	static SimInfo identify(SlotManager slotMgr) {
+		SimInfo si = new SimInfo();
+		si.setIdentity(slotMgr);
+		return si;
+	}
+
+	private void setIdentity(SlotManager slotMgr) {
 		if (slotMgr.slotIndex != null) slotIdx = slotMgr.slotIndex;
 		subscriptionId = slotMgr.subscriptionId;
 
 		imei = slotMgr.imei;
-		simState = setSimState(slotMgr.findSimState());
-		iccId = setStandardIccId(slotMgr.findIccId());
+		simState = setSimState(slotMgr.simState != null ? slotMgr.simState : slotMgr.findSimState());
+		iccId = setStandardIccId(slotMgr.iccId != null ? slotMgr.iccId : slotMgr.findIccId());
+	}
+
+	/**
+	 * The second phase: reads the IMSI, operator and network fields from the slot. Fields the SubscriptionInfo for the same SIM
+	 * already supplied are copied from fromSubscription instead of being read again, except the HNI: SubscriptionInfo only has an
+	 * int MNC, so its HNI loses any leading zero.
+	 */
+	void enrich(SlotManager slotMgr, SimInfo fromSubscription) {
 		imsi = slotMgr.findImsi();
 		mcc = setMcc(imsi);
+		parseHni();
 
 		hni = slotMgr.findOperator();
-		operatorName = slotMgr.findOperatorName();
-		countryIso = slotMgr.findCountryIso();
+		operatorName = fromSubscription != null && fromSubscription.operatorName != null ? fromSubscription.operatorName : slotMgr.findOperatorName();
+		countryIso = fromSubscription != null && fromSubscription.countryIso != null ? fromSubscription.countryIso : slotMgr.findCountryIso();
 		networkOperator = slotMgr.findNetworkOperator();
 		networkOperatorName = slotMgr.findNetworkOperatorName();
 		networkCountryIso = slotMgr.findNetworkCountryIso();
 		networkType = setNetworkType(slotMgr.findNetworkType());
-		networkRoaming = setNetworkRoaming(slotMgr.findNetworkRoaming());
+		networkRoaming = fromSubscription != null ? fromSubscription.networkRoaming : setNetworkRoaming(slotMgr.findNetworkRoaming());
 
 //		Log.i(TAG, "Created SIM representation using reflection: " + this.log());
 	}
@@ -126,6 +182,7 @@ public class SimInfo {
 		hni = "" + subInfo.getMcc() + subInfo.getMnc();
 		mcc = "" + subInfo.getMcc();
 		mnc = "" + subInfo.getMnc();
+		parseHni();
 		iccId = setStandardIccId(subInfo.getIccId());
 
 		operatorName = (String) subInfo.getCarrierName(); // Is this Network Operator or Sim Operator?
@@ -141,6 +198,31 @@ public class SimInfo {
 //		Log.i(TAG, "Created SIM representation using Subscription info: " + this.log());
 	}
 
+	/**
+	 * Fills in what a SubscriptionInfo doesn't supply through the public per-subscription getters
+	 *
+	 * @return false if the ICCID or IMSI still couldn't be read, so the SIM can't be identified without reflection
+	 */
+	@TargetApi(24)
+	boolean enrich(SubscriptionBackend backend) {
+		if (iccId == null || iccId.isEmpty()) iccId = setStandardIccId(backend.iccId(subscriptionId));
+		String subscriberId = backend.imsi(subscriptionId);
+		if (subscriberId != null && subscriberId.length() >= 5) {
+			imsi = subscriberId;
+			mcc = setMcc(imsi);
+			parseHni();
+		}
+		String simOperator = backend.simOperator(subscriptionId);
+		if (simOperator != null && !simOperator.isEmpty()) hni = simOperator; // Otherwise keep the SubscriptionInfo's, which may have lost a leading MNC zero
+		simState = setSimState(backend.simState(slotIdx));
+		imei = backend.deviceId(slotIdx);
+		networkOperator = backend.networkOperator(subscriptionId);
+		networkOperatorName = backend.networkOperatorName(subscriptionId);
+		networkCountryIso = backend.networkCountryIso(subscriptionId);
+		networkType = setNetworkType(backend.networkType(subscriptionId));
+		return iccId != null && !iccId.isEmpty() && subscriberId != null && subscriberId.length() >= 5;
+	}
+
 	public boolean isSameSim(SimInfo simInfo) { // FIXME: change so that if the SimInfo represents the same sim, the one with more/better info (and more accurate slotIdx?) is returned. It currently relies on order to do this, which is fragile
 		return simInfo != null && simInfo.iccId != null && iccId != null && iccId.equals(simInfo.iccId);
 	}
@@ -186,24 +268,40 @@ public class SimInfo {
 		editor.putInt(KEY + SimContract.COLUMN_SUB_ID + iccId, subId);
 		editor.commit();
 	}
+	static List<SimDataSource.Outcome> saveAll(List<SimInfo> simInfos, SimChangeSet changes, Context c) {
+		List<SimDataSource.Outcome> outcomes = new SimDataSource(c).saveAll(simInfos);
+		if (!changes.getInserted().isEmpty() || !changes.getSubscriptionChanged().isEmpty()) {
+			SharedPreferences.Editor editor = Utils.getSharedPrefs(c).edit();
+			for (SimInfo si : changes.getInserted())
+				editor.putInt(KEY + SimContract.COLUMN_SUB_ID + si.iccId, si.subscriptionId);
+			for (SimInfo si : changes.getSubscriptionChanged())
+				editor.putInt(KEY + SimContract.COLUMN_SUB_ID + si.iccId, si.subscriptionId);
+			editor.apply();
+		}
+		return outcomes;
+	}
 	public static int getSubId(String iccId, Context c) {
 		return Utils.getSharedPrefs(c).getInt(KEY + SimContract.COLUMN_SUB_ID + iccId, -1);
 	}
 
 	public static List<SimInfo> loadPresentByHni(JSONArray hniList, Context c) {
-		List<SimInfo> simInfos = new ArrayList<>();
+		List<String> hnis = new ArrayList<>(hniList.length());
 		for (int h = 0; h < hniList.length(); h++) {
 			try {
-				simInfos.addAll(new SimDataSource(c).getPresent(hniList.getString(h).substring(0, 3), hniList.getString(h).substring(3)));
-			} catch (JSONException | NullPointerException e) { Sentry.capture(e); }
+				hnis.add(hniList.getString(h));
+			} catch (JSONException e) { Sentry.capture(e); }
 		}
-		return simInfos;
+		return new SimDataSource(c).getPresentByHni(hnis);
 	}
 
 	public static SimInfo loadBySlot(int slotIdx, Context c) {
 		return new SimDataSource(c).get(slotIdx);
 	}
 
+	public static List<SimInfo> loadByIccIds(Collection<String> iccIds, Context c) {
+		return new SimDataSource(c).loadByIccIds(iccIds);
+	}
+
 	public static List<SimInfo> loadAll(Context c) {
 		return new SimDataSource(c).getAll();
 	}
@@ -215,15 +313,54 @@ public class SimInfo {
 	}
 	private String setMcc(String imsi) { return imsi != null ? imsi.substring(0, 3) : null; }
 
+	/**
+	 * @return the non-negative value of the digits of s between start and end, or -1 if there are none or any isn't a digit
+	 */
+	static int parseDigits(String s, int start, int end) {
+		if (s == null || start >= end || end > s.length()) return -1;
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char digit = s.charAt(i);
+			if (digit < '0' || digit > '9') return -1;
+			value = value * 10 + (digit - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the MCC and each MNC the IMSI could hold: the single digit of a 4 digit IMSI, otherwise its 2 and 3 digit prefixes.
+	 * Called wherever mcc and imsi are set, and again by the matchers if either has been replaced since.
+	 */
+	void parseHni() {
+		mccDigits = mcc != null && mcc.length() == 3 ? parseDigits(mcc, 0, 3) : -1;
+		int length = imsi != null ? imsi.length() : 0;
+		mnc1Digit = length == 4 ? parseDigits(imsi, 3, 4) : -1;
+		mnc2Digits = length >= 5 ? parseDigits(imsi, 3, 5) : -1;
+		mnc3Digits = length >= 6 ? parseDigits(imsi, 3, 6) : -1;
+		parsedMcc = mcc;
+		parsedImsi = imsi;
+	}
+	private void checkParsedHni() {
+		if (parsedImsi != imsi || parsedMcc != mcc) parseHni();
+	}
+
+	/**
+	 * @return the distinct MNCs which the IMSI could hold, which isMncMatch accepts. Some may be -1.
+	 */
+	int[] getMncCandidates() {
+		checkParsedHni();
+		return new int[] { mnc1Digit, mnc2Digits, mnc3Digits != mnc2Digits ? mnc3Digits : -1 };
+	}
+
 	boolean isMncMatch(int mncInt) {
-		return (imsi.length() == 4 && Integer.valueOf(imsi.substring(3)) == mncInt) ||
-			(imsi.length() >= 5 && Integer.valueOf(imsi.substring(3, 5)) == mncInt) ||
-			(imsi.length() >= 6 && Integer.valueOf(imsi.substring(3, 6)) == mncInt);
+		checkParsedHni();
+		return mncInt >= 0 && (mncInt == mnc1Digit || mncInt == mnc2Digits || mncInt == mnc3Digits);
 	}
 
 	public String getInterpretedHni(JSONArray actionHniList) {
 		for (int h = 0; h < actionHniList.length(); h++) {
-			int mncInt = Integer.valueOf(actionHniList.optString(h).substring(3));
+			String hni = actionHniList.optString(h);
+			int mncInt = hni.length() > 3 && hni.length() <= 6 ? parseDigits(hni, 3, hni.length()) : -1;
 			if (isMncMatch(mncInt)) {
 				return imsi.substring(0, 3) + mncInt;
 			}
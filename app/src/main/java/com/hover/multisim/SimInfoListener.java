@@ -0,0 +1,16 @@
+package com.hover.multisim;
+
+import java.util.List;
+
+/**
+ * Receives the SIMs which are present whenever they change, so that there's no need to reload them with SimInfo.loadAll after the
+ * broadcast. Register with MultiSimWorker.addListener().
+ */
+public interface SimInfoListener {
+	/**
+	 * @param sims the SIMs which are now present. These are copies for this listener alone, and the list can't be modified
+	 * @param changes what changed since the last call to this listener, or since it was registered. A slow listener only gets the
+	 * latest SIMs, with the changes since the ones it last received.
+	 */
+	void onSimInfoChanged(List<SimInfo> sims, SimChangeSet changes);
+}
@@ -0,0 +1,71 @@
+package com.hover.multisim;
+
+/**
+ * The multisim.db schema as a chain of in-place steps, one per database version. A new install creates the version 1 table and
+ * runs every step, so it ends up with exactly the schema of an upgraded install. Steps only alter the schema and backfill rows;
+ * they never drop SIMs, since losing them forces a full reflective rediscovery and change broadcasts for SIMs which never
+ * changed. The steps are plain SQL so that every path can be tested off the device.
+ */
+final class SimMigrations {
+	static final int LATEST = 2;
+
+	interface Sql {
+		void execSQL(String sql);
+	}
+
+	static final String V1_TABLE_CREATE = "create table "
+		+ SimContract.TABLE_NAME + "("
+		+ SimContract.COLUMN_ENTRY_ID + " integer primary key autoincrement, "
+		+ SimContract.COLUMN_SLOT_IDX + " integer not null, "
+		+ SimContract.COLUMN_SUB_ID + " integer not null, "
+		+ SimContract.COLUMN_IMEI + " text, "
+		+ SimContract.COLUMN_STATE + " integer default -1, "
+		+ SimContract.COLUMN_IMSI + " text not null, "
+		+ SimContract.COLUMN_MCC + " text not null, "
+		+ SimContract.COLUMN_MNC + " text, "
+		+ SimContract.COLUMN_ICCID + " text not null, "
+		+ SimContract.COLUMN_OP + " text, "
+		+ SimContract.COLUMN_OP_NAME + " text, "
+		+ SimContract.COLUMN_COUNTRY_ISO + " text, "
+		+ SimContract.COLUMN_ROAMING + " integer default 0 not null, "
+		+ SimContract.COLUMN_NETWORK_CODE + " text, "
+		+ SimContract.COLUMN_NETWORK_NAME + " text, "
+		+ SimContract.COLUMN_NETWORK_COUNTRY + " text, "
+		+ SimContract.COLUMN_NETWORK_TYPE + " integer, "
+		+ "UNIQUE (" + SimContract.COLUMN_ICCID + ") ON CONFLICT REPLACE"
+		+ ")";
+
+	private static final String SLOT_INDEX_CREATE = "create index if not exists " + SimContract.TABLE_NAME + "_slot_idx on "
+		+ SimContract.TABLE_NAME + "(" + SimContract.COLUMN_SLOT_IDX + ")";
+	private static final String MCC_SLOT_INDEX_CREATE = "create index if not exists " + SimContract.TABLE_NAME + "_mcc_slot_idx on "
+		+ SimContract.TABLE_NAME + "(" + SimContract.COLUMN_MCC + ", " + SimContract.COLUMN_SLOT_IDX + ")";
+
+	static final String TABLE_DROP = "drop table if exists " + SimContract.TABLE_NAME;
+
+	private SimMigrations() {}
+
+	static void create(Sql db) {
+		db.execSQL(V1_TABLE_CREATE);
+		migrate(db, 1, LATEST);
+	}
+
+	/**
+	 * Runs each step after fromVersion up to and including toVersion. New columns must be nullable or have a default, so that rows
+	 * written before the step stay valid.
+	 */
+	static void migrate(Sql db, int fromVersion, int toVersion) {
+		for (int version = fromVersion + 1; version <= toVersion; version++)
+			step(db, version);
+	}
+
+	private static void step(Sql db, int version) {
+		switch (version) {
+			case 2: // Indexes for the present-SIM and by-MCC reads
+				db.execSQL(SLOT_INDEX_CREATE);
+				db.execSQL(MCC_SLOT_INDEX_CREATE);
+				break;
+			default:
+				throw new IllegalArgumentException("No migration to database version " + version);
+		}
+	}
+}
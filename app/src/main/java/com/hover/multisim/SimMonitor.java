@@ -0,0 +1,588 @@
+package com.hover.multisim;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import android.telephony.PhoneStateListener;
+import android.telephony.ServiceState;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import io.sentry.Sentry;
+
+/**
+ * The one SIM state receiver, set of phone state listeners and scanner for the process. Workers attach while they run; the
+ * listeners are registered while at least one is attached, and every attached worker hears about each trigger and each finished
+ * scan. A worker which asks for a scan while one is already queued or running joins it rather than starting another.
+ */
+final class SimMonitor {
+	private final static String TAG = MultiSimWorker.TAG;
+	final static long SETTLE_MS = 750, MAX_LATENCY_MS = 3000; // Collapse bursts of SIM/service state events into one scan
+	private final static ExecutorService scanExecutor = Executors.newSingleThreadExecutor(Utils.daemonThreads("MultiSimScan"));
+
+	static final ListenerRegistry listeners = new ListenerRegistry();
+	private static SimMonitor instance;
+
+	interface Attachment {
+		/**
+		 * Called for each SIM or service state event which could need a scan, before it is coalesced
+		 */
+		void onTrigger();
+		/**
+		 * Called after each scan finishes, including one which was already running when this attached
+		 */
+		void onScanned(boolean succeeded);
+	}
+
+	private final Context context;
+	private final Handler main = new Handler(Looper.getMainLooper());
+	private final List<Attachment> attached = new CopyOnWriteArrayList<>();
+
+	private final Semaphore slotSemaphore = new Semaphore(1, true);
+	private final Semaphore simSemaphore = new Semaphore(1, true);
+
+	private final ScanCoalescer scanCoalescer;
+	private SimStateReceiver simStateReceiver;
+	private final List<SimStateListener> simStateListeners = new ArrayList<>();
+	private final TriggerFilter triggerFilter = new TriggerFilter();
+	private ArrayList<String> validClassNames;
+	private ProbeProfile profile;
+	private TelephonyBackends.Cache backends;
+	private Set<Integer> targetSlots = null;
+	private final Map<Object, ProbeProfile.Source> mgrSources = new LinkedHashMap<>(); // In discovery order, which the profile replays
+
+	private final String[] POSS_CLASS_NAMES = new String[] {
+			null,
+			"android.telephony.TelephonyManager",
+			"android.telephony.MSimTelephonyManager",
+			"android.telephony.MultiSimTelephonyService",
+			"com.mediatek.telephony.TelephonyManagerEx",
+			"com.android.internal.telephony.Phone",
+			"com.android.internal.telephony.PhoneFactory"
+	};
+
+	private SimMonitor(Context context) {
+		this.context = context.getApplicationContext();
+		scanCoalescer = new ScanCoalescer(scanner, scanExecutor, SETTLE_MS, MAX_LATENCY_MS);
+	}
+
+	static synchronized SimMonitor get(Context context) {
+		if (instance == null) instance = new SimMonitor(context);
+		return instance;
+	}
+
+	/**
+	 * Registers the SIM state receiver and phone state listeners if no other worker already has. Must be called on the main
+	 * thread, since TelephonyManager.listen() must take place there.
+	 */
+	void attach(Attachment attachment) {
+		synchronized (attached) { // Not the monitor itself, which a scan holds
+			if (!attached.contains(attachment)) attached.add(attachment);
+			registerSimStateReceiver();
+			if (simStateListeners.isEmpty()) registerSimStateListeners();
+		}
+	}
+
+	/**
+	 * Unregisters the receiver and listeners once the last worker detaches. Scans already queued still run, to keep the database
+	 * current.
+	 */
+	void detach(Attachment attachment) {
+		synchronized (attached) {
+			if (!attached.remove(attachment) || !attached.isEmpty()) return;
+		}
+		main.post(releaseIfDetached);
+	}
+
+	/**
+	 * Asks for a scan on behalf of a worker. It joins the scan already queued, or the one running if that checks everything.
+	 */
+	void requestScan(ScanRequest request) { scanCoalescer.join(request); }
+
+	boolean isBusy() { return scanCoalescer.isBusy(); }
+
+	private void trigger(ScanRequest request) {
+		for (Attachment attachment : attached) attachment.onTrigger();
+		scanCoalescer.trigger(request);
+	}
+
+	private final Runnable releaseIfDetached = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (attached) {
+				if (!attached.isEmpty()) return;
+				try {
+					for (SimStateListener listener : simStateListeners)
+						listener.teleMgr.listen(listener, PhoneStateListener.LISTEN_NONE);
+					simStateListeners.clear();
+					if (simStateReceiver != null)
+						context.unregisterReceiver(simStateReceiver);
+					simStateReceiver = null;
+				} catch (Exception ignored) {}
+			}
+		}
+	};
+
+	private final ScanCoalescer.Scanner scanner = new ScanCoalescer.Scanner() {
+		@Override
+		public void scan(ScanRequest request) {
+			boolean succeeded = false;
+			try {
+				simSemaphore.acquire();
+				if (Utils.hasPhonePerm(context)) {
+					Log.v(TAG, "reviewing sim info, " + request);
+					List<SimInfo> oldList = getSaved();
+					if (request.isNetworkOnly() && oldList != null && refreshNetwork(request.getNetworkSubIds(), oldList)) {
+						succeeded = true;
+						return;
+					}
+					List<SimInfo> newList = findSims(getStrategies(request, oldList));
+
+					if (newList != null) {
+						SimChangeSet changes = SimChangeSet.compute(oldList, newList);
+						onSimInfoUpdate(newList, changes);
+						ScanSchedule.scanned(context, !changes.isEmpty());
+						if (!request.isFull() && !request.getNetworkSubIds().isEmpty()) refreshNetwork(request.getNetworkSubIds(), newList);
+						succeeded = true;
+					}
+				}
+			} catch (Exception e) { Log.w(TAG, "threw while attempting to update sim list", e); Sentry.capture(e);
+			} finally {
+				simSemaphore.release();
+				for (Attachment attachment : attached) attachment.onScanned(succeeded);
+			}
+		}
+	};
+
+	/**
+	 * The scan strategies to try in order: the public subscription APIs where they can identify every SIM, then reflection on only
+	 * the requested slots, then the full reflective scan
+	 */
+	private List<ScanStrategy> getStrategies(final ScanRequest request, final List<SimInfo> oldList) {
+		List<ScanStrategy> strategies = new ArrayList<>();
+		if (Build.VERSION.SDK_INT >= 24)
+			strategies.add(new SubscriptionScanStrategy(context));
+		if (!request.isFull() && !request.getSlots().isEmpty() && oldList != null)
+			strategies.add(new ScanStrategy() {
+				@Override public String name() { return "incremental reflection"; }
+				@Override public List<SimInfo> findSims() { return findSimInfoForSlots(request.getSlots(), oldList); }
+			});
+		strategies.add(new ScanStrategy() {
+			@Override public String name() { return "reflection"; }
+			@Override public List<SimInfo> findSims() { return findUniqueSimInfo(); }
+		});
+		return strategies;
+	}
+
+	private List<SimInfo> findSims(List<ScanStrategy> strategies) throws Exception {
+		for (ScanStrategy strategy : strategies) {
+			List<SimInfo> sims = strategy.findSims();
+			if (sims != null) {
+				Log.v(TAG, "Found " + sims.size() + " SIM(s) with " + strategy.name() + " scan");
+				return sims;
+			}
+			Log.v(TAG, strategy.name() + " scan couldn't account for every SIM, falling back");
+		}
+		return null;
+	}
+
+	/**
+	 * Updates only the network columns of the given subscriptions, for service state changes which can't affect SIM identity
+	 *
+	 * @return false if a full scan is needed instead, because this API level has no public per-subscription getters or a
+	 * subscription isn't one of the saved SIMs
+	 */
+	private boolean refreshNetwork(Set<Integer> subIds, List<SimInfo> saved) {
+		if (Build.VERSION.SDK_INT < 24) return false;
+		boolean all = subIds.contains(ScanRequest.ALL_SUBSCRIPTIONS), changed = false;
+		int refreshed = 0;
+		SubscriptionBackend backend = new SubscriptionBackend(context);
+		for (SimInfo si : saved) {
+			if (!all && !subIds.contains(si.subscriptionId)) continue;
+			refreshed++;
+			if (refreshNetwork(si, backend)) changed = true;
+		}
+		if (!all && refreshed < subIds.size()) return false;
+		Log.v(TAG, "Refreshed network info for " + refreshed + " SIM(s), changed: " + changed);
+		if (changed) fireSimInfoBroadcast();
+		return true;
+	}
+	private boolean refreshNetwork(SimInfo si, SubscriptionBackend backend) {
+		String operator = backend.networkOperator(si.subscriptionId), name = backend.networkOperatorName(si.subscriptionId), countryIso = backend.networkCountryIso(si.subscriptionId);
+		Integer type = backend.networkType(si.subscriptionId);
+		Boolean roaming = backend.networkRoaming(si.subscriptionId);
+		int networkType = type != null ? type : 0;
+		boolean networkRoaming = roaming != null && roaming;
+		if (Utils.equals(operator, si.networkOperator) && Utils.equals(name, si.networkOperatorName) && Utils.equals(countryIso, si.networkCountryIso)
+			    && networkType == si.networkType && networkRoaming == si.networkRoaming)
+			return false;
+		new SimDataSource(context).updateNetwork(si, operator, name, countryIso, networkType, networkRoaming ? 1 : 0);
+		return true;
+	}
+
+	private ArrayList<SimInfo> getSaved() {
+		ArrayList<SimInfo> oldList = null;
+		List<SimInfo> present = new SimDataSource(context).getPresent();
+		for (int i = 0; i < MultiSimWorker.SLOT_COUNT; i++) {
+			for (SimInfo si : present) {
+				if (si.slotIdx == i) {
+					if (oldList == null) oldList = new ArrayList<>();
+					oldList.add(si);
+					break;
+				}
+			}
+		}
+		Log.v(TAG, "Loaded old list from db. Size: " + (oldList != null ? oldList.size() : "null"));
+		return oldList;
+	}
+
+	/**
+	 * Saves every scan, since the change set doesn't cover fields like the IMSI, HNI or operator name which can still be corrected;
+	 * saving writes nothing when no column changed. Only a change to the set of SIMs is broadcast.
+	 */
+	private void onSimInfoUpdate(List<SimInfo> newList, SimChangeSet changes) {
+		updateDb(newList, changes);
+		if (changes.isEmpty()) return;
+		Log.v(TAG, "SIMs changed: " + changes + ". Firing broadcast");
+		fireSimInfoBroadcast();
+	}
+
+	private void fireSimInfoBroadcast() {
+		LocalBroadcastManager.getInstance(context).sendBroadcast(new Intent(MultiSimWorker.action(context)));
+		listeners.publish(new SimDataSource(context).getPresent());
+	}
+
+	private void updateDb(List<SimInfo> newList, SimChangeSet changes) {
+		List<SimDataSource.Outcome> outcomes = SimInfo.saveAll(newList, changes, context);
+		for (int i = 0; i < newList.size(); i++)
+			if (outcomes.get(i) != SimDataSource.Outcome.UNCHANGED)
+				Log.i(TAG, "Saving SIM in slot " + newList.get(i).slotIdx + ": " + newList.get(i).toString() + ", " + outcomes.get(i));
+	}
+
+	synchronized private List<SimInfo> findUniqueSimInfo() {
+		List<SimInfo> newList = new ArrayList<>();
+		try {
+			slotSemaphore.acquire();
+			profile = ProbeProfile.load(context);
+			if (profile == null) profile = OemCapabilityTable.match(context);
+			List<SimInfo> replayed = profile != null ? findUniqueSimInfo(profile) : null;
+			if (replayed != null)
+				newList = replayed;
+			else {
+				Log.v(TAG, profile == null ? "No probe profile for this device, running discovery" : "Probe profile found no ready slots, running discovery");
+				profile = ProbeProfile.learn();
+				newList = findUniqueSimInfo(profile);
+			}
+		} catch (Exception e) { Log.w(TAG, "Multi-SIM worker caught something", e); Sentry.capture(e);
+		} finally { slotSemaphore.release(); }
+		return newList;
+	}
+
+	/**
+	 * @return the unique SIMs, or null if a replayed profile no longer produces any READY slot
+	 */
+	private List<SimInfo> findUniqueSimInfo(ProbeProfile profile) throws Exception {
+		mgrSources.clear();
+		backends = new TelephonyBackends.Cache(profile);
+		List<SlotManager> slotMgrList = new ArrayList<>();
+		List<SubscriptionInfo> subInfos = probeSlots(slotMgrList);
+
+		if (!profile.isLearning() && slotMgrList.isEmpty())
+			return null;
+		profile.recordSlots(slotMgrList, mgrSources);
+		profile.save(context);
+		TelephonyBackends.logStats();
+		ProbeGuard.logStates();
+
+		return createUniqueSimInfoList(subInfos, slotMgrList);
+	}
+
+	/**
+	 * Re-probes only the given slots and merges what it finds into the saved snapshot
+	 *
+	 * @return the merged SIM list, or null if the merge was inconsistent and a full scan is needed
+	 */
+	synchronized private List<SimInfo> findSimInfoForSlots(Set<Integer> slots, List<SimInfo> snapshot) {
+		try {
+			slotSemaphore.acquire();
+			profile = ProbeProfile.load(context);
+			if (profile == null) profile = OemCapabilityTable.match(context);
+			if (profile == null) profile = ProbeProfile.learn();
+			targetSlots = slots;
+			mgrSources.clear();
+			backends = new TelephonyBackends.Cache(profile);
+			List<SlotManager> slotMgrList = new ArrayList<>();
+			List<SubscriptionInfo> subInfos = probeSlots(slotMgrList);
+			return mergeIntoSnapshot(slots, createUniqueSimInfoList(subInfos, slotMgrList), snapshot);
+		} catch (Exception e) { Log.w(TAG, "Incremental scan caught something", e); Sentry.capture(e); return null;
+		} finally { targetSlots = null; slotSemaphore.release(); }
+	}
+
+	private List<SimInfo> mergeIntoSnapshot(Set<Integer> slots, List<SimInfo> found, List<SimInfo> snapshot) {
+		List<SimInfo> merged = new ArrayList<>();
+		for (SimInfo si : snapshot)
+			if (!slots.contains(si.slotIdx)) merged.add(si);
+		for (SimInfo si : found) {
+			if (!slots.contains(si.slotIdx) || !si.isNotContainedIn(merged)) return null; // Reported outside the slot, or moved from an untouched slot
+			merged.add(si);
+		}
+		if (!profile.isLearning())
+			for (SimInfo si : snapshot)
+				if (slots.contains(si.slotIdx) && si.isNotContainedIn(found)) return null; // Could be a removal or a stale profile, let a full scan decide
+		return merged;
+	}
+
+	@SuppressWarnings({"MissingPermission"})
+	private List<SubscriptionInfo> probeSlots(List<SlotManager> slotMgrList) throws Exception {
+		List<Callable<SlotManager>> slotProbes = new ArrayList<>();
+		List<Object> teleMgrInstances = listTeleMgrs(slotProbes);
+		List<SubscriptionInfo> subInfos = null;
+		if (Build.VERSION.SDK_INT >= 22)
+			subInfos = getSubscriptions(teleMgrInstances, slotProbes);
+		SlotManager.addProbedSlots(slotMgrList, slotProbes);
+		return subInfos;
+	}
+
+	private boolean isTargetSlot(int slotIdx) { return targetSlots == null || targetSlots.contains(slotIdx); }
+
+	/**
+	 * Identifies a SIM for every slot and subscription, dedupes them by ICCID with slots first, and only then reads the rest of the
+	 * fields for the slot SIMs which survived, on the probe pool
+	 */
+	private List<SimInfo> createUniqueSimInfoList(List<SubscriptionInfo> subInfos, List<SlotManager> slotMgrList) throws InterruptedException {
+		final Map<SimInfo, SlotManager> slotOf = new IdentityHashMap<>();
+		List<SimInfo> newList = new ArrayList<>();
+		for (SlotManager sm: slotMgrList) {
+			SimInfo si = sm.identifySim();
+			slotOf.put(si, sm);
+			newList.add(si);
+		}
+		final Map<String, SimInfo> subscribed = new HashMap<>();
+		if (subInfos != null) {
+			for (SubscriptionInfo subInfo: subInfos) {
+				SimInfo si = new SimInfo(subInfo, context);
+				if (si.iccId != null && !subscribed.containsKey(si.iccId)) subscribed.put(si.iccId, si);
+				newList.add(si);
+			}
+		}
+		newList = SimChangeSet.unique(newList);
+
+		List<Callable<SimInfo>> enrichments = new ArrayList<>();
+		for (final SimInfo si : newList) {
+			if (!slotOf.containsKey(si)) continue;
+			enrichments.add(new Callable<SimInfo>() {
+				@Override
+				public SimInfo call() {
+					si.enrich(slotOf.get(si), si.iccId != null ? subscribed.get(si.iccId) : null);
+					return si;
+				}
+			});
+		}
+		List<SimInfo> enriched = ProbePool.invokeAll(enrichments);
+		for (int i = 0, e = 0; i < newList.size(); i++) {
+			if (!slotOf.containsKey(newList.get(i))) continue;
+			if (enriched.get(e++) == null) newList.remove(i--);
+		}
+		return newList;
+	}
+
+	@TargetApi(22)
+	@SuppressWarnings({"MissingPermission"})
+	private List<SubscriptionInfo> getSubscriptions(List<Object> teleMgrInstances, List<Callable<SlotManager>> slotProbes) throws Exception {
+		List<SubscriptionInfo> subInfos = SubscriptionManager.from(context).getActiveSubscriptionInfoList();
+		if (subInfos != null && targetSlots != null) {
+			List<SubscriptionInfo> targeted = new ArrayList<>();
+			for (SubscriptionInfo subinfo : subInfos)
+				if (isTargetSlot(subinfo.getSimSlotIndex())) targeted.add(subinfo);
+			subInfos = targeted;
+		}
+		if (subInfos != null && Build.VERSION.SDK_INT >= 24) {
+			SubscriptionBackend backend = new SubscriptionBackend(context);
+			for (SubscriptionInfo subinfo : subInfos)
+				SlotManager.addValidReadySlot(slotProbes, subinfo.getSimSlotIndex(), subinfo.getSubscriptionId(), backend.getTelephonyManager(), null, TelephonyManager.class, backend);
+		}
+		if (teleMgrInstances != null) {
+			for (Object teleMgr : teleMgrInstances) {
+				if (subInfos != null) {
+					for (SubscriptionInfo subinfo : subInfos)
+						SlotManager.addValidReadySlots(slotProbes, subinfo.getSimSlotIndex(), subinfo.getSubscriptionId(), teleMgr, validClassNames, backends);
+				}
+			}
+		}
+		return subInfos;
+	}
+
+	@SuppressWarnings("ResourceType")
+	private List<Object> listTeleMgrs(List<Callable<SlotManager>> slotProbes) {
+		if (!profile.isLearning())
+			return listProfiledTeleMgrs(slotProbes);
+		validClassNames = new ArrayList<>(Arrays.asList(POSS_CLASS_NAMES));
+		List<Object> teleMgrList = new ArrayList<>();
+
+//		Log("Creating TeleMgrs List..............................................................");
+		for (String className : POSS_CLASS_NAMES) {
+			if (className == null) continue;
+			addMgrFromReflection(className, teleMgrList, null, slotProbes);
+			for (int i = 0; i < MultiSimWorker.SLOT_COUNT; i++)
+				addMgrFromReflection(className, teleMgrList, i, slotProbes);
+		}
+
+		addMgrFromSystemService(Context.TELEPHONY_SERVICE, teleMgrList, null, slotProbes);
+		addMgrFromSystemService("phone_msim", teleMgrList, null, slotProbes);
+		for (int j = 0; j < MultiSimWorker.SLOT_COUNT; j++)
+			addMgrFromSystemService("phone" + j, teleMgrList, j, slotProbes);
+		teleMgrList.add(null);
+
+//		Log("Total TeleMgrInstances length including null entry: " + teleMgrList.size());
+//		Log("Valid class names were: " + validClassNames.toString());
+//		Log("....................................................................................");
+		return teleMgrList;
+	}
+	private List<Object> listProfiledTeleMgrs(List<Callable<SlotManager>> slotProbes) {
+		validClassNames = profile.getClassNames();
+		List<Object> teleMgrList = new ArrayList<>();
+		for (ProbeProfile.Source source : profile.getSources()) {
+			if (ProbeProfile.KIND_REFLECT.equals(source.kind))
+				addMgrFromReflection(source.name, teleMgrList, source.slotIdx, slotProbes);
+			else if (ProbeProfile.KIND_SERVICE.equals(source.kind))
+				addMgrFromSystemService(source.name, teleMgrList, source.slotIdx, slotProbes);
+		}
+		teleMgrList.add(null);
+		return teleMgrList;
+	}
+	private void addMgrFromReflection(String className, List<Object> teleMgrList, Object slotIdx, List<Callable<SlotManager>> slotProbes) {
+		Object result = runMethodReflect(className, "getDefault", slotIdx == null ? null : new Object[]{ slotIdx });
+		if (result != null && !teleMgrList.contains(result)) {
+			teleMgrList.add(result);
+			mgrSources.put(result, new ProbeProfile.Source(ProbeProfile.KIND_REFLECT, className, (Integer) slotIdx));
+			Log("Added Mgr using className: " + className + ", method: getDefault, and param: " + slotIdx);
+			if (Build.VERSION.SDK_INT < 22)
+				SlotManager.addValidReadySlots(slotProbes, slotIdx, result, validClassNames, backends, targetSlots);
+		}
+	}
+	private void addMgrFromSystemService(String serviceName, List<Object> teleMgrList, Object slotIdx, List<Callable<SlotManager>> slotProbes) {
+		Object serv = context.getSystemService(serviceName);
+		if (serv != null && !teleMgrList.contains(serv)) {
+			teleMgrList.add(serv);
+			mgrSources.put(serv, new ProbeProfile.Source(ProbeProfile.KIND_SERVICE, serviceName, (Integer) slotIdx));
+			Log("Added Mgr using mContext.getSystemService('" + serviceName + "')");
+			if (Build.VERSION.SDK_INT < 22)
+				SlotManager.addValidReadySlots(slotProbes, slotIdx, serv, validClassNames, backends, targetSlots);
+		}
+	}
+
+	@SuppressWarnings("SameParameterValue")
+	private Object runMethodReflect(String className, String methodName, Object[] methodParams) {
+		Class<?> classInstance = MethodIndex.forName(className);
+		if (classInstance != null)
+			return MultiSimWorker.runMethodReflect(null, classInstance, methodName, methodParams);
+		validClassNames.remove(className);
+		return null;
+	}
+
+	@SuppressWarnings({"MissingPermission"})
+	private void registerSimStateListeners() {
+		TelephonyManager teleMgr = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+		// Before API 26 listen() ignores the subscription of the TelephonyManager it is called on, so only split per subscription after that
+		if (Build.VERSION.SDK_INT >= 26) {
+			List<SubscriptionInfo> subInfos = SubscriptionManager.from(context).getActiveSubscriptionInfoList();
+			if (subInfos != null && !subInfos.isEmpty()) {
+				for (SubscriptionInfo subInfo : subInfos)
+					listen(new SimStateListener(subInfo.getSubscriptionId(), teleMgr.createForSubscriptionId(subInfo.getSubscriptionId())));
+				return;
+			}
+		}
+		listen(new SimStateListener(SubscriptionManager.INVALID_SUBSCRIPTION_ID, teleMgr));
+	}
+	private void listen(SimStateListener listener) {
+		listener.teleMgr.listen(listener, PhoneStateListener.LISTEN_SERVICE_STATE | PhoneStateListener.LISTEN_DATA_CONNECTION_STATE);
+		simStateListeners.add(listener);
+	}
+
+	private void registerSimStateReceiver() {
+		if (simStateReceiver == null) {
+			simStateReceiver = new SimStateReceiver();
+			IntentFilter intentFilter = new IntentFilter();
+			intentFilter.addAction("android.intent.action.SIM_STATE_CHANGED");
+			intentFilter.addAction("android.intent.action.ACTION_SIM_STATE_CHANGED");
+			intentFilter.addAction("vivo.intent.action.ACTION_SIM_STATE_CHANGED");
+			context.registerReceiver(simStateReceiver, intentFilter);
+		}
+	}
+
+	private class SimStateListener extends PhoneStateListener {
+		private final int subscriptionId;
+		private final TelephonyManager teleMgr;
+
+		SimStateListener(int subscriptionId, TelephonyManager teleMgr) {
+			this.subscriptionId = subscriptionId;
+			this.teleMgr = teleMgr;
+		}
+
+		public void onServiceStateChanged(ServiceState serviceState) {
+			if (triggerFilter.isRelevant(subscriptionId, serviceState))
+				trigger(ScanRequest.forNetwork(subscriptionId));
+		}
+
+		public void onDataConnectionStateChanged(int state, int networkType) {
+			if (triggerFilter.isRelevant(subscriptionId, networkType))
+				trigger(ScanRequest.forNetwork(subscriptionId));
+		}
+	}
+
+	private class SimStateReceiver extends BroadcastReceiver {
+		@Override
+		public void onReceive(final Context context, final Intent intent) {
+			if (!triggerFilter.isRelevant(intent)) return;
+			if (!isInitialStickyBroadcast()) ScanSchedule.reset(context);
+			trigger(getScanRequest(intent));
+		}
+	}
+
+	/**
+	 * SIM state broadcasts name the slot, phone or subscription they are about. Rescan just that slot when it can be resolved.
+	 */
+	private ScanRequest getScanRequest(Intent intent) {
+		int slotIdx = intent.getIntExtra("slot", -1);
+		if (slotIdx < 0) slotIdx = intent.getIntExtra("phone", -1);
+		if (slotIdx < 0 && Build.VERSION.SDK_INT >= 22) slotIdx = getSlotForSubscription(intent.getIntExtra("subscription", -1));
+		return slotIdx >= 0 && slotIdx < MultiSimWorker.SLOT_COUNT ? ScanRequest.forSlot(slotIdx) : ScanRequest.full();
+	}
+
+	@TargetApi(22)
+	@SuppressWarnings({"MissingPermission"})
+	private int getSlotForSubscription(int subscriptionId) {
+		if (subscriptionId < 0) return -1;
+		try {
+			SubscriptionInfo subInfo = SubscriptionManager.from(context).getActiveSubscriptionInfo(subscriptionId);
+			return subInfo != null ? subInfo.getSimSlotIndex() : -1;
+		} catch (SecurityException e) { return -1; }
+	}
+
+	@SuppressWarnings({"EmptyMethod", "unused"})
+	private static void Log(String message) {
+//		Log.e(TAG, message);
+	}
+}
@@ -0,0 +1,152 @@
+package com.hover.multisim;
+
+import android.content.ContentValues;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable, process-wide copy of the SIM table. It is loaded from the database once and then replaced, never modified, by
+ * every write which goes through SimDataSource, so readers never need a lock or the disk after warm-up. Rows keep the table's
+ * rowid order: an inserted row goes to the end, while an update leaves its row in place.
+ *
+ * Readers only ever get copies, since SimInfo fields are mutable.
+ */
+final class SimSnapshot {
+	final static Object LOCK = new Object();
+	private static volatile SimSnapshot current = null;
+
+	private final List<SimInfo> rows;
+	private final Map<Integer, List<SimInfo>> presentByHni;
+
+	private SimSnapshot(List<SimInfo> rows) {
+		this.rows = Collections.unmodifiableList(rows);
+		presentByHni = indexPresent(rows);
+	}
+
+	/**
+	 * Keys each present SIM by its MCC together with every MNC which isMncMatch would read from its IMSI: the 2 and 3 digit
+	 * interpretations, or the single digit of a 4 digit IMSI. Rows keep table order within each key.
+	 */
+	private static Map<Integer, List<SimInfo>> indexPresent(List<SimInfo> rows) {
+		Map<Integer, List<SimInfo>> index = new HashMap<>();
+		for (SimInfo si : rows) {
+			int[] mncs = si.getMncCandidates();
+			if (si.slotIdx == -1 || si.mccDigits < 0) continue;
+			for (int mnc : mncs) {
+				if (mnc < 0) continue;
+				Integer key = getHniKey(si.mccDigits, mnc);
+				List<SimInfo> sims = index.get(key);
+				if (sims == null) index.put(key, sims = new ArrayList<>(1));
+				sims.add(si);
+			}
+		}
+		return index;
+	}
+
+	private static int getHniKey(int mcc, int mnc) { return mcc * 1000 + mnc; }
+
+	/**
+	 * @return the current snapshot, reading the table if this is the first call in the process
+	 */
+	static SimSnapshot get(SimDataSource source) {
+		SimSnapshot snapshot = current;
+		if (snapshot != null) return snapshot;
+		synchronized (LOCK) {
+			if (current == null) current = new SimSnapshot(source.readAll());
+			return current;
+		}
+	}
+
+	/**
+	 * @return the current snapshot, or null if none has been loaded yet
+	 */
+	static SimSnapshot getIfLoaded() { return current; }
+
+	/**
+	 * Publishes a new snapshot with the rows just written to the table. Inserted rows go to the end in order, replacing any row with
+	 * the same ICCID, and updated rows get their new column values in place. Must be called holding LOCK.
+	 */
+	static void apply(List<SimInfo> inserted, Map<String, ContentValues> updated) {
+		SimSnapshot snapshot = current;
+		if (snapshot == null || (inserted.isEmpty() && updated.isEmpty())) return;
+		Set<String> insertedIccIds = new HashSet<>();
+		for (SimInfo si : inserted) insertedIccIds.add(si.iccId);
+		List<SimInfo> rows = new ArrayList<>(snapshot.rows.size() + inserted.size());
+		for (SimInfo si : snapshot.rows) {
+			if (insertedIccIds.contains(si.iccId)) continue;
+			ContentValues cv = updated.get(si.iccId);
+			if (cv != null) si = SimDataSource.apply(new SimInfo(si), cv);
+			rows.add(si);
+		}
+		rows.addAll(inserted);
+		current = new SimSnapshot(rows);
+	}
+
+	/**
+	 * @return the stored row itself, not a copy, for writers comparing against it. Must not be modified.
+	 */
+	SimInfo peek(String iccId) {
+		for (SimInfo si : rows)
+			if (Utils.equals(si.iccId, iccId)) return si;
+		return null;
+	}
+
+	/**
+	 * @return the stored rows themselves, not copies, for writers comparing against them. Must not be modified.
+	 */
+	List<SimInfo> rows() { return rows; }
+
+	List<SimInfo> all() {
+		List<SimInfo> infos = new ArrayList<>(rows.size());
+		for (SimInfo si : rows)
+			infos.add(new SimInfo(si));
+		return infos;
+	}
+
+	SimInfo bySlot(int slotIdx) {
+		for (SimInfo si : rows)
+			if (si.slotIdx == slotIdx) return new SimInfo(si);
+		return null;
+	}
+
+	SimInfo byIccId(String iccId) {
+		for (SimInfo si : rows)
+			if (Utils.equals(si.iccId, iccId)) return new SimInfo(si);
+		return null;
+	}
+
+	List<SimInfo> byIccIds(Set<String> iccIds) {
+		List<SimInfo> infos = new ArrayList<>();
+		for (SimInfo si : rows)
+			if (iccIds.contains(si.iccId)) infos.add(new SimInfo(si));
+		return infos;
+	}
+
+	List<SimInfo> present() {
+		List<SimInfo> infos = new ArrayList<>();
+		for (SimInfo si : rows)
+			if (si.slotIdx >= 0) infos.add(new SimInfo(si));
+		return infos;
+	}
+
+	/**
+	 * @return the present SIMs matching each HNI in turn, so a SIM matching several HNIs appears once for each of them
+	 */
+	List<SimInfo> presentByHni(List<String> hnis) {
+		List<SimInfo> matchingSims = new ArrayList<>();
+		for (String hni : hnis) {
+			if (hni == null || hni.length() < 4 || hni.length() > 6) continue;
+			int mcc = SimInfo.parseDigits(hni, 0, 3), mnc = SimInfo.parseDigits(hni, 3, hni.length());
+			List<SimInfo> sims = mcc < 0 || mnc < 0 ? null : presentByHni.get(getHniKey(mcc, mnc));
+			if (sims != null)
+				for (SimInfo si : sims) matchingSims.add(new SimInfo(si));
+		}
+		return matchingSims;
+	}
+}
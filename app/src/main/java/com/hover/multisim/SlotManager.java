@@ -4,6 +4,8 @@ import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import io.sentry.Sentry;
 
@@ -15,47 +17,44 @@ final class SlotManager {
 	final Integer slotIndex;
 	final Integer subscriptionId;
 	final String imei;
-	private final Object teleMgr;
+	final Integer simState;
+	final String iccId;
+	final Object teleMgr;
+	final String className;
 	private final Class<?> teleClass;
+	final TelephonyBackend backend;
 
-	private final static String[] METHOD_SUFFIXES = new String[] {
-			"",
-			"Gemini",
-			"Ext",
-			"Ds",
-			"ForSubscription",
-			"ForPhone"
-	};
-
-	@SuppressWarnings("unused")
-	private SlotManager(int slotIdx, int subscriptionId, Object teleMgr, Class<?> teleClass, Integer simState, String imei, String iccId) {
-//		Log.i(TAG, "Creating slotMgr. SlotIdx: " + slotIdx + " Mgr: " + teleMgr + " Class + " + teleClass + " IMEI: " + imei + " ICCID: " + iccId);
+	private SlotManager(int slotIdx, int subscriptionId, Object teleMgr, String className, Class<?> teleClass, TelephonyBackend backend, Integer simState, String imei, String iccId) {
+//		Log.i(TAG, "Creating slotMgr. SlotIdx: " + slotIdx + " Mgr: " + teleMgr + " Class + " + teleClass + " Backend: " + backend.name() + " IMEI: " + imei + " ICCID: " + iccId);
 		slotIndex = slotIdx;
 		this.subscriptionId = subscriptionId;
 		this.imei = imei;
+		this.simState = simState;
+		this.iccId = iccId;
 		this.teleMgr = teleMgr;
+		this.className = className;
 		this.teleClass = teleClass;
+		this.backend = backend;
 	}
 
-	SimInfo createSimInfo() {
-		return new SimInfo(this);
-	}
-
-	Object getValue(String methodName, Object subscriptionId) {
-		return getValue(methodName, (int) subscriptionId, teleMgr, teleClass);
+	/**
+	 * @return a SimInfo with only the identity which was already read while probing the slot, see SimInfo.enrich()
+	 */
+	SimInfo identifySim() {
+		return SimInfo.identify(this);
 	}
 
-	Integer findSimState() {	return (Integer) getValue("getSimState", slotIndex); }
-	String findIccId() {	return (String) getValue("getSimSerialNumber", subscriptionId); }
-	String findImsi() {	return (String) getValue("getSubscriberId", subscriptionId); }
-	String findOperator() {	return (String) getValue("getSimOperator", subscriptionId); }
-	String findOperatorName() {	return (String) getValue("getSimOperatorName", subscriptionId); }
-	String findCountryIso() {	return (String) getValue("getSimCountryIso", subscriptionId); }
-	String findNetworkOperator() {	return (String) getValue("getNetworkOperator", subscriptionId); }
-	String findNetworkOperatorName() {	return (String) getValue("getNetworkOperatorName", subscriptionId); }
-	String findNetworkCountryIso() {	return (String) getValue("getNetworkCountryIso", subscriptionId); }
-	Integer findNetworkType() {	return (Integer) getValue("getNetworkType", subscriptionId); }
-	boolean findNetworkRoaming() {	return (boolean) getValue("isNetworkRoaming", subscriptionId); }
+	Integer findSimState() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.simState(slotIndex)); }
+	String findIccId() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.iccId(subscriptionId)); }
+	String findImsi() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.imsi(subscriptionId)); }
+	String findOperator() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.simOperator(subscriptionId)); }
+	String findOperatorName() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.simOperatorName(subscriptionId)); }
+	String findCountryIso() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.simCountryIso(subscriptionId)); }
+	String findNetworkOperator() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.networkOperator(subscriptionId)); }
+	String findNetworkOperatorName() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.networkOperatorName(subscriptionId)); }
+	String findNetworkCountryIso() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.networkCountryIso(subscriptionId)); }
+	Integer findNetworkType() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.networkType(subscriptionId)); }
+	Boolean findNetworkRoaming() {	long start = System.nanoTime(); return TelephonyBackends.record(backend, start, backend.networkRoaming(subscriptionId)); }
 
 	private boolean isUnique(List<SlotManager> slotMgrList) {
 		for (SlotManager mgr: slotMgrList) {
@@ -68,76 +67,70 @@ final class SlotManager {
 		return true;
 	}
 
-	public static void addValidReadySlots(List<SlotManager> slotMgrList, Object slotIdx, Object teleMgrInstance, ArrayList<String> validClassNames) {
-		if (slotIdx == null)
+	public static void addValidReadySlots(List<Callable<SlotManager>> slotProbes, Object slotIdx, Object teleMgrInstance, ArrayList<String> validClassNames, TelephonyBackends.Cache backends, Set<Integer> targetSlots) {
+		if (slotIdx == null) {
 			for (int i = 0; i < MultiSimWorker.SLOT_COUNT - 1; i++)
-				addValidReadySlots(slotMgrList, i, i, teleMgrInstance, validClassNames);
-		else
-			addValidReadySlots(slotMgrList, (int) slotIdx, (int) slotIdx, teleMgrInstance, validClassNames);
+				if (targetSlots == null || targetSlots.contains(i))
+					addValidReadySlots(slotProbes, i, i, teleMgrInstance, validClassNames, backends);
+		} else if (targetSlots == null || targetSlots.contains((int) slotIdx))
+			addValidReadySlots(slotProbes, (int) slotIdx, (int) slotIdx, teleMgrInstance, validClassNames, backends);
 	}
-	public static void addValidReadySlots(List<SlotManager> slotMgrList, int slotIdx, int subscriptionId, Object teleMgrInstance, ArrayList<String> validClassNames) {
+	public static void addValidReadySlots(List<Callable<SlotManager>> slotProbes, int slotIdx, int subscriptionId, Object teleMgrInstance, ArrayList<String> validClassNames, TelephonyBackends.Cache backends) {
 		if (validClassNames == null || validClassNames.size() <= 0) { return; }
 		for (String className : validClassNames)
 			if (teleMgrInstance != null || className != null) {
-				SlotManager sm = findValidReadySlot(slotIdx, subscriptionId, teleMgrInstance, className);
-				if (sm != null && (slotMgrList.size() == 0 || sm.isUnique(slotMgrList))) {
-					slotMgrList.add(sm);
-//					Log.e(TAG, "Added slotMgr. SlotIdx: " + slotIdx + " subId: " + subscriptionId + " Mgr: " + teleMgrInstance + " Class + " + sm.teleClass + " IMEI: " + sm.imei); // + " ICCID: " + getSimIccId(subscriptionId, teleMgr, sm.teleClass));
-				}
+				Class<?> teleClass = getTeleClass(teleMgrInstance, className);
+				TelephonyBackend backend = backends.get(teleMgrInstance, className, teleClass);
+				addValidReadySlot(slotProbes, slotIdx, subscriptionId, teleMgrInstance, className, teleClass, backend);
+			}
+	}
+	static void addValidReadySlot(List<Callable<SlotManager>> slotProbes, final int slotIdx, final int subscriptionId, final Object teleMgr, final String className, final Class<?> teleClass, final TelephonyBackend backend) {
+		slotProbes.add(new Callable<SlotManager>() {
+			@Override
+			public SlotManager call() { return findValidReadySlot(slotIdx, subscriptionId, teleMgr, className, teleClass, backend); }
+		});
+	}
+
+	/**
+	 * Runs the slot probes in parallel, then adds the READY slots to slotMgrList in probe order, skipping repeats
+	 */
+	static void addProbedSlots(List<SlotManager> slotMgrList, List<Callable<SlotManager>> slotProbes) throws InterruptedException {
+		for (SlotManager sm : ProbePool.invokeAll(slotProbes)) {
+			if (sm != null && (slotMgrList.size() == 0 || sm.isUnique(slotMgrList))) {
+				slotMgrList.add(sm);
+//				Log.e(TAG, "Added slotMgr. SlotIdx: " + sm.slotIndex + " subId: " + sm.subscriptionId + " Mgr: " + sm.teleMgr + " Class + " + sm.teleClass + " IMEI: " + sm.imei);
 			}
+		}
 	}
-	private static SlotManager findValidReadySlot(int slotIdx, int subscriptionId, Object teleMgr, String className) {
-		Class<?> teleClass = getTeleClass(teleMgr, className);
-		Integer simState = getSimState(slotIdx, teleMgr, teleClass);
-		String imei = getDeviceId(slotIdx, teleMgr, teleClass);
-		String iccId = getSimIccId(subscriptionId, teleMgr, teleClass);
-//		Log.i(TAG, "Got slot mgr with slotIdx: " + slotIdx + " subId: " + subscriptionId + " teleClass: " + teleClass + " simState: " + simState + " IMEI: " + imei + " ICCID: " + iccId + " IMSI: " + getSimImsi(subscriptionId, teleMgr, teleClass));
+	private static SlotManager findValidReadySlot(int slotIdx, int subscriptionId, Object teleMgr, String className, Class<?> teleClass, TelephonyBackend backend) {
+		Integer simState = getSimState(slotIdx, backend);
+		String imei = getDeviceId(slotIdx, backend);
+		String iccId = getSimIccId(subscriptionId, backend);
+//		Log.i(TAG, "Got slot mgr with slotIdx: " + slotIdx + " subId: " + subscriptionId + " backend: " + backend.name() + " simState: " + simState + " IMEI: " + imei + " ICCID: " + iccId);
 		if (simState != null && simState == SIM_STATE_READY && imei != null && iccId != null)
-			return new SlotManager(slotIdx, subscriptionId, teleMgr, teleClass, simState, imei, iccId);
+			return new SlotManager(slotIdx, subscriptionId, teleMgr, className, teleClass, backend, simState, imei, iccId);
 		return null;
 	}
 
-	private static Integer getSimState(int slotIndex, Object teleMgr, Class<?> teleClass) {
+	private static Integer getSimState(int slotIndex, TelephonyBackend backend) {
+		long start = System.nanoTime();
 		try {
-			return (Integer) getValue("getSimState", slotIndex, teleMgr, teleClass);
+			return TelephonyBackends.record(backend, start, backend.simState(slotIndex));
 		} catch (Exception e) { Log.d(TAG, "Couldn't get sim state"); return SIM_STATE_UNKNOWN; }
 	}
-	private static String getDeviceId(int slotIndex, Object teleMgr, Class<?> teleClass) {
-		String imei = (String) getValue("getDeviceId", slotIndex, teleMgr, teleClass);
-		if (imei == null) imei = (String) getValue("getImei", slotIndex, teleMgr, teleClass);
-		return imei;
+	private static String getDeviceId(int slotIndex, TelephonyBackend backend) {
+		long start = System.nanoTime();
+		return TelephonyBackends.record(backend, start, backend.deviceId(slotIndex));
 	}
-	private static String getSimIccId(int subscriptionId, Object teleMgr, Class<?> teleClass) {
-		return (String) getValue("getSimSerialNumber", subscriptionId, teleMgr, teleClass);
-	}
-	static String getSimImsi(int subscriptionId, Object teleMgr, Class<?> teleClass) {
-		return (String) getValue("getSubscriberId", subscriptionId, teleMgr, teleClass);
+	private static String getSimIccId(int subscriptionId, TelephonyBackend backend) {
+		long start = System.nanoTime();
+		return TelephonyBackends.record(backend, start, backend.iccId(subscriptionId));
 	}
 
 	private static Class<?> getTeleClass(Object teleMgr, String className) {
-		try {
-			if (className != null) return Class.forName(className);
-		} catch (ClassNotFoundException ignored) { }
+		Class<?> teleClass = MethodIndex.forName(className);
+		if (teleClass != null) return teleClass;
 		if (teleMgr != null) return teleMgr.getClass();
 		return null;
 	}
-
-	private static Object getValue(String methodName, int slotIndex, Object teleMgr, Class<?> teleClass) {
-		Object result = spamTeleMgr(methodName, teleMgr, teleClass, slotIndex);
-		if (result == null) result = spamTeleMgr(methodName, teleMgr, teleClass, null);
-		if (result == null) return null;
-		return result;
-	}
-	private static Object spamTeleMgr(String methodName, Object teleMgr, Class<?> teleClass, Object subscriptionId) {
-		if (methodName == null || methodName.length() <= 0)  return null;
-		Object result;
-		for (String methodSuffix : METHOD_SUFFIXES) {
-			result = MultiSimWorker.runMethodReflect(teleMgr, teleClass, methodName + methodSuffix, subscriptionId == null ? null : new Object[]{ subscriptionId });
-			if (result != null) {
-//				Log.i(TAG, "Got result for method: " + methodName + methodSuffix + ". Result: " + result.toString());
-				return result;
-			}
-		}
-		return null;
-	}
-}
\ No newline at end of file
+}
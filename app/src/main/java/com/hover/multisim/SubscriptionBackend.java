@@ -0,0 +1,72 @@
+package com.hover.multisim;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+import android.util.SparseArray;
+
+import java.lang.reflect.Method;
+
+/**
+ * The AOSP path on API 24 and up: every subscription getter goes through the public TelephonyManager returned by
+ * createForSubscriptionId, so no reflection is needed except for the slot SIM state before API 26.
+ */
+@TargetApi(24)
+@SuppressLint({"MissingPermission", "HardwareIds"})
+final class SubscriptionBackend implements TelephonyBackend {
+	private final TelephonyManager teleMgr;
+	private final Method hiddenSimState;
+	private final SparseArray<TelephonyManager> subMgrs = new SparseArray<>();
+
+	SubscriptionBackend(Context c) {
+		teleMgr = (TelephonyManager) c.getSystemService(Context.TELEPHONY_SERVICE);
+		hiddenSimState = Build.VERSION.SDK_INT < 26 ? MethodIndex.of(TelephonyManager.class).find("getSimState", new Object[]{ 0 }) : null;
+	}
+
+	TelephonyManager getTelephonyManager() { return teleMgr; }
+
+	@Override public String name() { return "subscription"; }
+
+	@Override public Integer simState(int slotIdx) {
+		try {
+			if (Build.VERSION.SDK_INT >= 26) return teleMgr.getSimState(slotIdx);
+			return hiddenSimState != null ? (Integer) ProbeGuard.invoke(hiddenSimState, teleMgr, new Object[]{ slotIdx }) : null;
+		} catch (Exception e) { return null; }
+	}
+	@Override public String deviceId(int slotIdx) {
+		try {
+			return Build.VERSION.SDK_INT >= 26 ? teleMgr.getImei(slotIdx) : teleMgr.getDeviceId(slotIdx);
+		} catch (SecurityException e) { return null; }
+	}
+
+	@Override public String iccId(int subscriptionId) {
+		try { return forSub(subscriptionId).getSimSerialNumber(); } catch (SecurityException e) { return null; }
+	}
+	@Override public String imsi(int subscriptionId) {
+		try { return forSub(subscriptionId).getSubscriberId(); } catch (SecurityException e) { return null; }
+	}
+	@Override public String simOperator(int subscriptionId) { return forSub(subscriptionId).getSimOperator(); }
+	@Override public String simOperatorName(int subscriptionId) { return forSub(subscriptionId).getSimOperatorName(); }
+	@Override public String simCountryIso(int subscriptionId) { return forSub(subscriptionId).getSimCountryIso(); }
+
+	@Override public String networkOperator(int subscriptionId) { return forSub(subscriptionId).getNetworkOperator(); }
+	@Override public String networkOperatorName(int subscriptionId) { return forSub(subscriptionId).getNetworkOperatorName(); }
+	@Override public String networkCountryIso(int subscriptionId) { return forSub(subscriptionId).getNetworkCountryIso(); }
+	@Override public Integer networkType(int subscriptionId) {
+		try { return forSub(subscriptionId).getNetworkType(); } catch (SecurityException e) { return null; }
+	}
+	@Override public Boolean networkRoaming(int subscriptionId) { return forSub(subscriptionId).isNetworkRoaming(); }
+
+	private TelephonyManager forSub(int subscriptionId) {
+		synchronized (subMgrs) {
+			TelephonyManager subMgr = subMgrs.get(subscriptionId);
+			if (subMgr == null) {
+				subMgr = teleMgr.createForSubscriptionId(subscriptionId);
+				subMgrs.put(subscriptionId, subMgr);
+			}
+			return subMgr;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.hover.multisim;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The first strategy on API 24 and up. SIMs come from the active subscription list, with their IMSI, state and network fields
+ * filled in through the public TelephonyManager for each subscription, so no reflection is needed. It gives up if a READY slot
+ * has no active subscription, or if a subscription's ICCID or IMSI can't be read.
+ */
+@TargetApi(24)
+final class SubscriptionScanStrategy implements ScanStrategy {
+	private final static String TAG = "SubscriptionScan";
+
+	private final Context context;
+
+	SubscriptionScanStrategy(Context c) { context = c.getApplicationContext(); }
+
+	@Override public String name() { return "subscription"; }
+
+	@Override
+	@SuppressLint("MissingPermission")
+	public List<SimInfo> findSims() {
+		List<SubscriptionInfo> subInfos = SubscriptionManager.from(context).getActiveSubscriptionInfoList();
+		SubscriptionBackend backend = new SubscriptionBackend(context);
+		List<SimInfo> sims = new ArrayList<>();
+		Set<Integer> slots = new HashSet<>();
+		if (subInfos != null) {
+			for (SubscriptionInfo subInfo : subInfos) {
+				SimInfo si = new SimInfo(subInfo, context);
+				if (!si.enrich(backend)) {
+					Log.v(TAG, "Couldn't identify the SIM in slot " + si.slotIdx);
+					return null;
+				}
+				slots.add(si.slotIdx);
+				sims.add(si);
+			}
+		}
+		int phoneCount = backend.getTelephonyManager().getPhoneCount();
+		for (int slot = 0; slot < phoneCount; slot++) {
+			Integer simState = backend.simState(slot);
+			if (!slots.contains(slot) && simState != null && simState == TelephonyManager.SIM_STATE_READY) {
+				Log.v(TAG, "Slot " + slot + " is ready but has no active subscription");
+				return null;
+			}
+		}
+		return SimChangeSet.unique(sims);
+	}
+}
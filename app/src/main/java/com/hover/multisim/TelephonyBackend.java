@@ -0,0 +1,28 @@
+package com.hover.multisim;
+
+/**
+ * Reads SIM and network state from one telephony implementation. Slot-indexed getters take the physical slot, the rest take the
+ * subscription ID, which is the same as the slot on devices that predate SubscriptionManager. Getters return null when the
+ * implementation can't answer.
+ */
+interface TelephonyBackend {
+	/**
+	 * A short, stable name for logs and per-backend stats
+	 */
+	String name();
+
+	Integer simState(int slotIdx);
+	String deviceId(int slotIdx);
+
+	String iccId(int subscriptionId);
+	String imsi(int subscriptionId);
+	String simOperator(int subscriptionId);
+	String simOperatorName(int subscriptionId);
+	String simCountryIso(int subscriptionId);
+
+	String networkOperator(int subscriptionId);
+	String networkOperatorName(int subscriptionId);
+	String networkCountryIso(int subscriptionId);
+	Integer networkType(int subscriptionId);
+	Boolean networkRoaming(int subscriptionId);
+}
@@ -0,0 +1,79 @@
+package com.hover.multisim;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the backend for a telephony manager/class pair and keeps per-backend call counts and timings so scans can be measured.
+ */
+final class TelephonyBackends {
+	private final static String TAG = "TelephonyBackends";
+	private final static ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+	private TelephonyBackends() {}
+
+	static TelephonyBackend create(Object teleMgr, String className, Class<?> teleClass, ProbeProfile profile) {
+		if (MediaTekBackend.CLASS_NAME.equals(className))
+			return new MediaTekBackend(teleMgr, teleClass, profile);
+		else if (QualcommBackend.CLASS_NAME.equals(className))
+			return new QualcommBackend(teleMgr, teleClass, profile);
+		return new ReflectiveBackend(teleMgr, teleClass, profile);
+	}
+
+	/**
+	 * The backends built during one scan, one per telephony manager and class name. The slot sweep asks for the same pair for
+	 * every slot, and each backend already takes the slot on every call, so its methods only need binding once.
+	 */
+	static final class Cache {
+		private final ProbeProfile profile;
+		private final Map<Object, Map<String, TelephonyBackend>> byMgr = new IdentityHashMap<>();
+
+		Cache(ProbeProfile profile) { this.profile = profile; }
+
+		synchronized TelephonyBackend get(Object teleMgr, String className, Class<?> teleClass) {
+			Map<String, TelephonyBackend> byClass = byMgr.get(teleMgr);
+			if (byClass == null) {
+				byClass = new HashMap<>();
+				byMgr.put(teleMgr, byClass);
+			}
+			TelephonyBackend backend = byClass.get(className);
+			if (backend == null) {
+				backend = create(teleMgr, className, teleClass, profile);
+				byClass.put(className, backend);
+			}
+			return backend;
+		}
+	}
+
+	static <T> T record(TelephonyBackend backend, long startNanos, T value) {
+		Stats s = stats.get(backend.name());
+		if (s == null) {
+			stats.putIfAbsent(backend.name(), new Stats());
+			s = stats.get(backend.name());
+		}
+		s.calls.incrementAndGet();
+		if (value != null) s.answers.incrementAndGet();
+		s.nanos.addAndGet(System.nanoTime() - startNanos);
+		return value;
+	}
+
+	static void logStats() {
+		for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet())
+			Log.v(TAG, entry.getKey() + ": " + entry.getValue());
+	}
+
+	static final class Stats {
+		final AtomicLong calls = new AtomicLong(), answers = new AtomicLong(), nanos = new AtomicLong();
+
+		@Override
+		public String toString() {
+			return calls.get() + " calls, " + answers.get() + " answered, " + (nanos.get() / 1000000) + "ms";
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package com.hover.multisim;
+
+import android.content.Intent;
+import android.telephony.ServiceState;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops SIM and service state triggers which can't change the SimInfo set or its network fields: intermediate SIM states,
+ * repeats of the last state seen for a slot, and service state updates whose operator, registration and roaming state are
+ * unchanged for the subscription. An intermediate or ABSENT state forgets the slot's last state, so that LOADED, NOT_READY,
+ * LOADED is seen as a new LOADED.
+ */
+final class TriggerFilter {
+	final static String EXTRA_SIM_STATE = "ss";
+	final static String[] SLOT_EXTRAS = new String[] { "slot", "phone", "subscription" };
+
+	// The SIM can't be read in these states, or is about to move to one where it can
+	private final static String SIM_STATE_ABSENT = "ABSENT";
+	private final static Set<String> INTERMEDIATE_SIM_STATES = new HashSet<>(Arrays.asList("NOT_READY", "LOCKED", "IMSI", "UNKNOWN", "INTERNAL_LOCKED"));
+
+	private final Map<String, String> lastSimStates = new HashMap<>();
+	private final Map<Integer, String> lastServiceStates = new HashMap<>();
+	private final Map<Integer, Integer> lastNetworkTypes = new HashMap<>();
+
+	synchronized boolean isRelevant(Intent intent) {
+		if (intent == null) return false;
+		String simState = intent.getStringExtra(EXTRA_SIM_STATE);
+		if (simState == null) return true;
+		String slotKey = getSlotKey(intent);
+		if (INTERMEDIATE_SIM_STATES.contains(simState) || SIM_STATE_ABSENT.equals(simState)) {
+			lastSimStates.remove(slotKey);
+			return SIM_STATE_ABSENT.equals(simState);
+		}
+		return !simState.equals(lastSimStates.put(slotKey, simState));
+	}
+
+	synchronized boolean isRelevant(int subscriptionId, ServiceState serviceState) {
+		if (serviceState == null) return false;
+		String summary = serviceState.getState() + "|" + serviceState.getOperatorNumeric() + "|" + serviceState.getOperatorAlphaLong() + "|" + serviceState.getRoaming();
+		return !summary.equals(lastServiceStates.put(subscriptionId, summary));
+	}
+
+	synchronized boolean isRelevant(int subscriptionId, int networkType) {
+		Integer last = lastNetworkTypes.put(subscriptionId, networkType);
+		return last == null || last != networkType;
+	}
+
+	private static String getSlotKey(Intent intent) {
+		StringBuilder key = new StringBuilder(intent.getAction() != null ? intent.getAction() : "");
+		for (String extra : SLOT_EXTRAS)
+			key.append('|').append(intent.getIntExtra(extra, -1));
+		return key.toString();
+	}
+}
@@ -6,6 +6,9 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import io.sentry.Sentry;
 
 public class Utils {
@@ -26,7 +29,26 @@ public class Utils {
 			                                      c.checkSelfPermission(Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED);
 	}
 
+	static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
 	public static SharedPreferences getSharedPrefs(Context context) {
 		return context.getSharedPreferences(getPackage(context) + SHARED_PREFS, Context.MODE_PRIVATE);
 	}
+
+	/**
+	 * @return a factory for daemon threads named name-1, name-2, ..., so that no scan or probe thread keeps the process alive
+	 */
+	static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
 }
@@ -0,0 +1,126 @@
+package com.hover.multisim;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs every migration path against SQLite on the JVM
+ */
+public class SimMigrationsTest {
+	private Connection connection;
+	private SimMigrations.Sql sql;
+
+	@Before
+	public void open() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		sql = new SimMigrations.Sql() {
+			@Override
+			public void execSQL(String s) {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute(s);
+				} catch (SQLException e) { throw new RuntimeException(s, e); }
+			}
+		};
+	}
+
+	@After
+	public void close() throws SQLException {
+		connection.close();
+	}
+
+	@Test
+	public void everyUpgradeKeepsRowsAndEndsWithTheNewSchema() throws SQLException {
+		SimMigrations.create(sql);
+		List<String> latest = getSchema();
+		sql.execSQL(SimMigrations.TABLE_DROP);
+
+		for (int from = 1; from < SimMigrations.LATEST; from++) {
+			sql.execSQL(SimMigrations.V1_TABLE_CREATE);
+			SimMigrations.migrate(sql, 1, from);
+			insertSim(0, 3, "8925400000000000001", "639", "02");
+			insertSim(-1, 5, "8925400000000000002", "639", "07");
+
+			SimMigrations.migrate(sql, from, SimMigrations.LATEST);
+
+			assertEquals("schema after upgrading from " + from, latest, getSchema());
+			assertEquals(3, getSubId("8925400000000000001"));
+			assertEquals(5, getSubId("8925400000000000002"));
+			assertEquals(2, count());
+			sql.execSQL(SimMigrations.TABLE_DROP);
+		}
+	}
+
+	@Test
+	public void eachStepRunsAlone() throws SQLException {
+		sql.execSQL(SimMigrations.V1_TABLE_CREATE);
+		for (int version = 1; version < SimMigrations.LATEST; version++)
+			SimMigrations.migrate(sql, version, version + 1);
+		List<String> stepped = getSchema();
+		sql.execSQL(SimMigrations.TABLE_DROP);
+		SimMigrations.create(sql);
+		assertEquals(getSchema(), stepped);
+	}
+
+	@Test
+	public void upgradedDatabaseStillAcceptsWrites() throws SQLException {
+		sql.execSQL(SimMigrations.V1_TABLE_CREATE);
+		insertSim(0, 3, "8925400000000000001", "639", "02");
+		SimMigrations.migrate(sql, 1, SimMigrations.LATEST);
+		insertSim(1, 4, "8925400000000000001", "639", "02"); // Same ICCID replaces the row
+		assertEquals(1, count());
+		assertEquals(4, getSubId("8925400000000000001"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void migratingPastLatestFails() {
+		SimMigrations.create(sql);
+		SimMigrations.migrate(sql, SimMigrations.LATEST, SimMigrations.LATEST + 1);
+	}
+
+	private void insertSim(int slotIdx, int subId, String iccId, String mcc, String mnc) {
+		sql.execSQL("insert into " + SimContract.TABLE_NAME + " (" + SimContract.COLUMN_SLOT_IDX + ", " + SimContract.COLUMN_SUB_ID + ", " +
+			            SimContract.COLUMN_IMSI + ", " + SimContract.COLUMN_MCC + ", " + SimContract.COLUMN_MNC + ", " + SimContract.COLUMN_ICCID +
+			            ") values (" + slotIdx + ", " + subId + ", '" + mcc + mnc + "0000000', '" + mcc + "', '" + mnc + "', '" + iccId + "')");
+	}
+
+	private int getSubId(String iccId) throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select " + SimContract.COLUMN_SUB_ID + " from " + SimContract.TABLE_NAME +
+			                                           " where " + SimContract.COLUMN_ICCID + " = '" + iccId + "'")) {
+			assertTrue("no row for " + iccId, rs.next());
+			return rs.getInt(1);
+		}
+	}
+
+	private int count() throws SQLException {
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select count(*) from " + SimContract.TABLE_NAME)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	/**
+	 * @return the table and index definitions, in a stable order
+	 */
+	private List<String> getSchema() throws SQLException {
+		List<String> schema = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+		     ResultSet rs = statement.executeQuery("select type, name, sql from sqlite_master where tbl_name = '" + SimContract.TABLE_NAME + "' order by type, name")) {
+			while (rs.next())
+				schema.add(rs.getString(1) + " " + rs.getString(2) + ": " + rs.getString(3));
+		}
+		return schema;
+	}
+}